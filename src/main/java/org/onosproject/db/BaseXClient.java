@@ -63,9 +63,25 @@ public final class BaseXClient implements Closeable {
    */
   public BaseXClient(final String host, final int port, final String username,
       final String password) throws IOException {
+    this(host, port, username, password, 0);
+  }
+
+  /**
+   * Constructor.
+   * @param host server name
+   * @param port server port
+   * @param username user name
+   * @param password password
+   * @param timeout read timeout in milliseconds, 0 to wait forever
+   * @throws IOException Exception, SocketTimeoutException if the server
+   * does not answer in time
+   */
+  public BaseXClient(final String host, final int port, final String username,
+      final String password, final int timeout) throws IOException {
 
     socket = new Socket();
     socket.connect(new InetSocketAddress(host, port), 5000);
+    socket.setSoTimeout(timeout);
     in = new BufferedInputStream(socket.getInputStream());
     out = socket.getOutputStream();
 
@@ -17,11 +17,35 @@
 
 package org.onosproject.db;
 
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static org.onlab.util.Tools.groupedThreads;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.net.SocketTimeoutException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -30,6 +54,10 @@ import javax.xml.parsers.SAXParserFactory;
 import org.onosproject.fwdask.Flow;
 import org.slf4j.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -41,20 +69,124 @@ public class DBQuestioner {
 
     private final Logger log = getLogger(getClass());
 
-    private boolean configurated = false;
-    private BaseXClient session = null;
+    private static final String DB_NAME = "fwdaskdb";
+
+    // Flows are partitioned by day, one document per day named flows-yyyy-MM-dd.xml
+    private static final String PARTITION_PREFIX = "flows-";
+    private static final String PARTITION_SUFFIX = ".xml";
+    // The single document of the flows stored before the partitioning
+    private static final String LEGACY_DOCUMENT = "fwdaskdb.xml";
+
+    private static final long RETENTION_PERIOD_MINUTES = 60;
+
+    private static final int CACHE_MAX_SIZE = 1024;
+    private static final long CACHE_TTL_SECONDS = 60;
+
+    // Size of the index of the cache above which the evicted queries are swept
+    private static final int INDEX_MAX_SIZE = 4 * CACHE_MAX_SIZE;
+    // Cached flow lists longer than this are invalidated instead of copied
+    private static final int MAX_UPDATED_FLOWS = 256;
+
+    // The start of the windows without end (e.g. "the last hour") is rounded
+    // down to the minute, so that the calls of the same minute share a result
+    private static final long OPEN_WINDOW_BUCKET_MS = 60000;
+
+    // External variables used to filter the flows, bound by prepare(...)
+    private static final String QUERY_PROLOG = "declare variable $value external; "
+            + "declare variable $since external; "
+            + "declare variable $until external; ";
+
+    private static final String DB_HOST = "localhost";
+    private static final int DB_PORT = 1984;
+    private static final String DB_USER = "FWDASK";
+    private static final String DB_PASSWORD = "fwdask";
+
+    // A call that gets no answer within DB_READ_TIMEOUT_MS breaks the
+    // connection, the retention can take longer to optimize the database
+    private static final int DB_READ_TIMEOUT_MS = 2000;
+    private static final int RETENTION_READ_TIMEOUT_MS = 600000;
+
+    // How long a call waits for the session used by another call
+    private static final long SESSION_WAIT_MS = 50;
+
+    // Delay between two connection attempts, doubled after every failure
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 60000;
+
+    /**
+     * @enum CircuitState
+     * @brief State of the connection to the XML Database: CLOSED when the
+     * database is usable, OPEN when the calls fail fast waiting for a
+     * reconnection, HALF_OPEN while a reconnection is being attempted
+     */
+    public enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private volatile CircuitState circuitState = CircuitState.OPEN;
+    private volatile boolean closed = false;
+    private boolean reconnectPending = false;
+    private long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+    private final AtomicLong connectionFailures = new AtomicLong();
+    private final AtomicLong busyCalls = new AtomicLong();
+
+    private final String host;
+    private final int port;
+
+    // The session, the SAX parser and the handler are used by one call at a
+    // time: the calls hold sessionLock while they talk to the database
+    private final ReentrantLock sessionLock = new ReentrantLock();
+    private volatile BaseXClient session = null;
     private SAXParser saxParser = null;
     private FlowXmlHandler handler = null;
 
+    // Names of the partitions present in the database, sorted by day
+    private final NavigableSet<String> partitions = new ConcurrentSkipListSet<String>();
+
+    // Partitions older than retentionDays are dropped, 0 means keep forever
+    private volatile int retentionDays = 0;
+
+    // Runs the connection attempts and the retention job, never the callers' threads
+    private final ScheduledExecutorService executor =
+            newSingleThreadScheduledExecutor(groupedThreads("onos/fwdask", "db-%d", log));
+
+    // Read-through cache of the query results, kept up to date by insertFlow
+    private final Cache<QueryKey, Object> cache = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_MAX_SIZE)
+            .expireAfterWrite(CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    // Cached queries by the field and the value they filter on, so that
+    // insertFlow only visits the queries the new flow can match. It can hold
+    // queries already evicted from the cache: they are dropped when they are
+    // met or when the index grows too large. Guarded by the DBQuestioner.
+    private final Map<FlowField, Map<String, Set<QueryKey>>> cacheIndex =
+            new EnumMap<FlowField, Map<String, Set<QueryKey>>>(FlowField.class);
+    private int cacheIndexSize = 0;
+
+    /**
+     * The connection to the XML Database is established in background,
+     * the constructor never waits for it: until the database is reachable
+     * every call fails fast (see isConnected).
+     */
     public DBQuestioner() {
+        this(DB_HOST, DB_PORT);
+    }
+
+    /**
+     * Connects to a XML Database listening on another address, e.g. a local
+     * server started by the tests.
+     */
+    DBQuestioner(String host, int port) {
+        this.host = host;
+        this.port = port;
 
         try {
-            this.session = new BaseXClient("localhost", 1984, "FWDASK", "fwdask");
             this.saxParser = SAXParserFactory.newInstance().newSAXParser();
             this.handler = new FlowXmlHandler();
-        } catch (IOException e) {
-            log.error(e.getMessage());
-            return;
         } catch (ParserConfigurationException e) {
             log.error(e.getMessage());
             return;
@@ -63,17 +195,258 @@ public class DBQuestioner {
             return;
         }
 
-        configurated = true;
+        scheduleReconnect(0);
+
+        executor.scheduleAtFixedRate(this::applyRetention, RETENTION_PERIOD_MINUTES,
+                RETENTION_PERIOD_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @method close
+     * @brief stop the background jobs and close the connection to the XML Database
+     * @return none
+     */
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+
+        synchronized (this) {
+            circuitState = CircuitState.OPEN;
+            closeSession();
+        }
+    }
+
+    /**
+     * @method isConnected
+     * @brief check if the XML Database can be used, i.e. the circuit is closed
+     * @return boolean
+     */
+    public boolean isConnected() {
+        return circuitState == CircuitState.CLOSED;
+    }
+
+    /**
+     * @method getCircuitState
+     * @brief return the state of the connection to the XML Database
+     * @return CircuitState
+     */
+    public CircuitState getCircuitState() {
+        return circuitState;
+    }
+
+    /**
+     * @method getConnectionFailures
+     * @brief return how many times the connection was lost or could not be established
+     * @return long
+     */
+    public long getConnectionFailures() {
+        return connectionFailures.get();
+    }
+
+    /**
+     * @method getBusyCalls
+     * @brief return how many calls failed fast because another call was
+     * using the connection for longer than SESSION_WAIT_MS
+     * @return long
+     */
+    public long getBusyCalls() {
+        return busyCalls.get();
+    }
+
+    /**
+     * @method connect
+     * @brief try to connect to the XML Database, on failure a new attempt is
+     * scheduled with an exponential backoff
+     * @return none
+     */
+    private void connect() {
+        BaseXClient newSession;
+
+        synchronized (this) {
+            reconnectPending = false;
+            if (closed) {
+                return;
+            }
+            circuitState = CircuitState.HALF_OPEN;
+        }
+
+        try {
+            newSession = openSession(DB_READ_TIMEOUT_MS);
+        } catch (IOException e) {
+            log.warn("Can't connect to the flow history database: {}", e.getMessage());
+            connectionFailed();
+            return;
+        }
+
+        sessionLock.lock();
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                session = newSession;
+            }
+            try {
+                loadPartitions(newSession);
+            } catch (IOException e) {
+                log.warn("Can't read the flow history database: {}", e.getMessage());
+                connectionFailed();
+                return;
+            }
+            synchronized (this) {
+                // Results cached before the outage may be stale
+                clearCache();
+                reconnectDelay = MIN_RECONNECT_DELAY_MS;
+                circuitState = CircuitState.CLOSED;
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+
+        log.info("Connected to the flow history database");
+
+        try {
+            executor.execute(this::migrateLegacyFlows);
+        } catch (RejectedExecutionException e) {
+            log.debug(e.getMessage());
+        }
+    }
+
+    /**
+     * @method openSession
+     * @brief open a new session to the XML Database
+     * @param timeout is the read timeout of the session in milliseconds
+     * @return BaseXClient
+     * @throws IOException
+     */
+    private BaseXClient openSession(int timeout) throws IOException {
+        return new BaseXClient(host, port, DB_USER, DB_PASSWORD, timeout);
+    }
+
+    /**
+     * @method acquireSession
+     * @brief take the session for a call, waiting at most SESSION_WAIT_MS
+     * for the call that is using it. The caller must release sessionLock.
+     * @return BaseXClient, null (and sessionLock not held) if the database
+     * can't be used now
+     */
+    private BaseXClient acquireSession() {
+        if (!isConnected()) {
+            return null;
+        }
+
+        try {
+            if (!sessionLock.tryLock(SESSION_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                busyCalls.incrementAndGet();
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        BaseXClient current = session;
+        if (current == null || !isConnected()) {
+            sessionLock.unlock();
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * @method connectionFailed
+     * @brief open the circuit, drop the current session and schedule a reconnection
+     * @return none
+     */
+    private synchronized void connectionFailed() {
+        connectionFailures.incrementAndGet();
+        circuitState = CircuitState.OPEN;
+        closeSession();
+        scheduleReconnect(reconnectDelay);
+        reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS);
+    }
+
+    /**
+     * @method handleError
+     * @brief log an error of the XML Database and, if it was caused by the
+     * connection (and not by the query), open the circuit
+     * @param e is the IOException thrown by the BaseXClient
+     * @return none
+     */
+    private void handleError(IOException e) {
+        log.error(e.getMessage());
+
+        // The server reports the query errors with a message in a plain
+        // IOException, anything else (a read timeout included) means that
+        // the connection is broken or can't be trusted anymore
+        if (e instanceof SocketTimeoutException || e.getClass() != IOException.class
+                || isNullOrEmpty(e.getMessage())) {
+            connectionFailed();
+        }
+    }
+
+    /**
+     * @method scheduleReconnect
+     * @brief schedule a connection attempt, unless one is already pending
+     * @param delay is the delay in milliseconds
+     * @return none
+     */
+    private synchronized void scheduleReconnect(long delay) {
+        if (reconnectPending || closed) {
+            return;
+        }
+        reconnectPending = true;
+        try {
+            executor.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            reconnectPending = false;
+        }
+    }
+
+    /**
+     * @method closeSession
+     * @brief close the current session, if any, ignoring the errors. It does
+     * not wait for the call using the session, which then fails.
+     * @return none
+     */
+    private synchronized void closeSession() {
+        BaseXClient current = session;
+        if (current != null) {
+            session = null;
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @method setRetentionDays
+     * @brief set after how many days the flows are removed from the XML Database
+     * @param days is an int, 0 to keep the flows forever
+     * @return none
+     */
+    public void setRetentionDays(int days) {
+        if (days < 0) {
+            throw new IllegalArgumentException("The retention must be a positive number of days");
+        }
+        this.retentionDays = days;
     }
 
     /**
      * @method insertFlow
-     * @brief insert a flow in the XML Database
+     * @brief insert a flow in the XML Database, in the partition of the day
+     * in which the flow was seen
      * @param pkt is a Flow object
      * @return return a boolean: true if the flow was inserted, false otherwise
      */
     public boolean insertFlow(Flow pkt) {
 
+        Timestamp timestamp = pkt.getTimestamp() != null ? pkt.getTimestamp()
+                : new Timestamp(System.currentTimeMillis());
+        String partition = partitionName(timestamp);
+
         String insertQuery = "insert node <flow>"
                 + "<vlan>" + pkt.getVlanID() + "</vlan>"
                 + "<ethType>" + pkt.getEthType() + "</ethType>"
@@ -84,20 +457,28 @@ public class DBQuestioner {
                 + "<destIp>" + pkt.getNetDestination() + "</destIp>"
                 + "<srcPort>" + pkt.getTransportSource() + "</srcPort>"
                 + "<destPort>" + pkt.getTransportDestination() + "</destPort>"
-                + "<timestamp>" + pkt.getTimestamp() + "</timestamp>"
-                + "</flow> into doc('fwdaskdb/fwdaskdb.xml')//flows";
+                + "<timestamp>" + timestamp + "</timestamp>"
+                + "</flow> into db:open('" + DB_NAME + "', '" + partition + "')/flows";
 
-        if (!configurated) {
+        BaseXClient client = acquireSession();
+        if (client == null) {
             return false;
         }
 
         try {
-            session.query(insertQuery).execute();
+            if (!partitions.contains(partition)) {
+                createPartition(client, partition);
+            }
+            client.query(insertQuery).execute();
         } catch (IOException e) {
-            log.error(e.getMessage());
+            handleError(e);
             return false;
+        } finally {
+            sessionLock.unlock();
         }
 
+        updateCache(pkt, timestamp);
+
         return true;
     }
 
@@ -121,28 +502,114 @@ public class DBQuestioner {
      * @return return the list of the flows
      */
     public List<Flow> getFlowsBySrcIp(String srcIp) {
+        return getFlows(FlowField.SRC_IP, srcIp, null, null);
+    }
+
+    /**
+     * @method getFlowsBySrcIp
+     * @brief return the flows that have as source Ip the string passed as argument
+     * and that were seen in the given time window
+     * @param srcIp is a String
+     * @param since is a Timestamp, lower bound of the window (null for no bound)
+     * @param until is a Timestamp, upper bound of the window (null for no bound)
+     * @return return the list of the flows
+     */
+    public List<Flow> getFlowsBySrcIp(String srcIp, Timestamp since, Timestamp until) {
+        return getFlows(FlowField.SRC_IP, srcIp, since, until);
+    }
+
+    /**
+     * @method getFlowsByDestIp
+     * @brief return all the flows that have as destination Ip the string passed as argument
+     * @param destIp is a String
+     * @return return the list of the flows
+     */
+    public List<Flow> getFlowsByDestIp(String destIp) {
+        return getFlows(FlowField.DEST_IP, destIp, null, null);
+    }
+
+    /**
+     * @method getFlowsByDestIp
+     * @brief return the flows that have as destination Ip the string passed as argument
+     * and that were seen in the given time window
+     * @param destIp is a String
+     * @param since is a Timestamp, lower bound of the window (null for no bound)
+     * @param until is a Timestamp, upper bound of the window (null for no bound)
+     * @return return the list of the flows
+     */
+    public List<Flow> getFlowsByDestIp(String destIp, Timestamp since, Timestamp until) {
+        return getFlows(FlowField.DEST_IP, destIp, since, until);
+    }
+
+    /**
+     * @method getFlows
+     * @brief return the flows whose field is equal to the value passed as argument
+     * and that were seen in the given time window
+     * @param field is the FlowField used to filter the flows
+     * @param value is a String
+     * @param since is a Timestamp, lower bound of the window (null for no bound)
+     * @param until is a Timestamp, upper bound of the window (null for no bound)
+     * @return return the list of the flows, null if there are none or on error
+     */
+    public List<Flow> getFlows(FlowField field, String value, Timestamp since, Timestamp until) {
+
+        QueryKey key = new QueryKey(QueryType.FLOWS, field, value, null, since, until);
+        @SuppressWarnings("unchecked")
+        List<Flow> queryResult = (List<Flow>) cache.getIfPresent(key);
+
+        if (queryResult == null) {
+            BaseXClient client = acquireSession();
+            if (client == null) {
+                return null;
+            }
+            try {
+                queryResult = loadFlows(client, key);
+            } finally {
+                sessionLock.unlock();
+            }
+        }
+
+        return (queryResult == null || queryResult.isEmpty()) ? null : queryResult;
+    }
+
+    /**
+     * @method loadFlows
+     * @brief execute the query of getFlows and store the result in the cache
+     * @param client is the session, held by the caller
+     * @param key is the QueryKey of the query
+     * @return return the list of the flows (empty if there are none), null on error
+     */
+    private List<Flow> loadFlows(BaseXClient client, QueryKey key) {
 
         String resultAsString;
         List<Flow> queryResult;
-        BaseXClient.Query query;
+        String flows = flowsPath(key.since, key.until);
 
-        String getQuery = "for $flow in doc('fwdaskdb/fwdaskdb.xml')//flows/flow "
-                + "where $flow/srcIp=" + srcIp + " return $flow";
+        @SuppressWarnings("unchecked")
+        List<Flow> cached = (List<Flow>) cache.asMap().get(key);
+        if (cached != null) {
+            return cached;
+        }
 
-        if (!configurated) {
-            return null;
+        if (flows == null) {
+            queryResult = Collections.emptyList();
+            cachePut(key, queryResult);
+            return queryResult;
         }
 
+        String getQuery = QUERY_PROLOG
+                + "for $flow in " + flows + " "
+                + whereClause(key.field) + " return $flow";
+
         try {
-            query = session.query(getQuery);
-            resultAsString = query.execute();
+            resultAsString = execute(client, getQuery, key.value, key.since, key.until);
         } catch (IOException e) {
-            log.error(e.getMessage());
+            handleError(e);
             return null;
         }
 
         if (resultAsString.isEmpty()) {
-            return null;
+            queryResult = Collections.emptyList();
         } else {
             try {
                 this.saxParser.parse(new InputSource(
@@ -155,57 +622,806 @@ public class DBQuestioner {
                 return null;
             }
 
-            queryResult = this.handler.getFlowsList();
+            queryResult = Collections.unmodifiableList(this.handler.getFlowsList());
         }
+
+        cachePut(key, queryResult);
         return queryResult;
 
     }
 
     /**
-     * @method getFlowsByDestIp
-     * @brief return all the flows that have as destination Ip the string passed as argument
-     * @param destIp is a String
-     * @return return the list of the flows
+     * @method countFlows
+     * @brief count, inside the XML Database, the flows whose field is equal
+     * to the value passed as argument and that were seen in the given time window
+     * @param field is the FlowField used to filter the flows
+     * @param value is a String
+     * @param since is a Timestamp, lower bound of the window (null for no bound)
+     * @param until is a Timestamp, upper bound of the window (null for no bound)
+     * @return return the number of flows, -1 on error
      */
-    public List<Flow> getFlowsByDestIp(String destIp) {
+    public long countFlows(FlowField field, String value, Timestamp since, Timestamp until) {
+        return count(new QueryKey(QueryType.COUNT, field, value, null, since, until));
+    }
 
-        String resultAsString;
-        List<Flow> queryResult;
-        BaseXClient.Query query;
+    /**
+     * @method countFlows
+     * @brief count, inside the XML Database, the flows whose field is equal
+     * to each one of the values passed as argument, with a single query for
+     * all the values that are not in the cache (e.g. for a batch of flows)
+     * @param field is the FlowField used to filter the flows
+     * @param values is a Collection of String
+     * @param since is a Timestamp, lower bound of the window (null for no bound)
+     * @param until is a Timestamp, upper bound of the window (null for no bound)
+     * @return return a map from each value to the number of flows, null on error
+     */
+    public Map<String, Long> countFlows(FlowField field, Collection<String> values,
+                                       Timestamp since, Timestamp until) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        List<QueryKey> missing = new ArrayList<QueryKey>();
 
-        String getQuery = "for $flow in doc('fwdaskdb/fwdaskdb.xml')//flows/flow "
-                + "where $flow/destIp=" + destIp + " return $flow";
+        since = QueryKey.windowStart(since, until);
+        for (String value : values) {
+            QueryKey key = new QueryKey(QueryType.COUNT, field, value, null, since, until);
+            Long result = (Long) cache.getIfPresent(key);
+            if (result == null) {
+                missing.add(key);
+            } else {
+                counts.put(value, result);
+            }
+        }
 
-        if (!configurated) {
-            return null;
+        if (!missing.isEmpty()) {
+            BaseXClient client = acquireSession();
+            if (client == null) {
+                return null;
+            }
+            Map<String, Long> loaded;
+            try {
+                loaded = loadCounts(client, field, missing, since, until);
+            } finally {
+                sessionLock.unlock();
+            }
+            if (loaded == null) {
+                return null;
+            }
+            counts.putAll(loaded);
         }
+        return counts;
+    }
+
+    /**
+     * @method loadCounts
+     * @brief execute the query of the batch countFlows and store the
+     * result of every value in the cache
+     * @param client is the session, held by the caller
+     * @param field is the FlowField used to filter the flows
+     * @param keys is the list of the QueryKey of the values to count
+     * @param since is a Timestamp (can be null)
+     * @param until is a Timestamp (can be null)
+     * @return return a map from each value to the number of flows, null on error
+     */
+    private Map<String, Long> loadCounts(BaseXClient client, FlowField field, List<QueryKey> keys,
+                                         Timestamp since, Timestamp until) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        StringBuilder values = new StringBuilder();
+        String item;
+        int separator;
+        String flows = flowsPath(since, until);
+
+        for (QueryKey key : keys) {
+            Long cached = (Long) cache.asMap().get(key);
+            if (cached != null) {
+                counts.put(key.value, cached);
+            } else {
+                values.append(key.value).append('\n');
+                counts.put(key.value, 0L);
+            }
+        }
+
+        if (values.length() == 0 || flows == null) {
+            return counts;
+        }
+
+        // The values are bound as a single newline separated string
+        String countQuery = QUERY_PROLOG
+                + "for $flow in " + flows + " "
+                + whereClause(field, "tokenize($value, '\\n')") + " "
+                + "group by $key := $flow/" + field.element() + "/string() "
+                + "return concat(count($flow), ' ', $key)";
 
         try {
-            query = session.query(getQuery);
-            resultAsString = query.execute();
+            BaseXClient.Query query = prepare(client, countQuery, values.toString(), since, until);
+            while ((item = query.next()) != null) {
+                separator = item.indexOf(' ');
+                counts.put(item.substring(separator + 1), Long.parseLong(item.substring(0, separator)));
+            }
+            query.close();
         } catch (IOException e) {
+            handleError(e);
+            return null;
+        } catch (NumberFormatException e) {
             log.error(e.getMessage());
             return null;
         }
 
-        if (resultAsString.isEmpty()) {
-            return null;
-        } else {
+        for (QueryKey key : keys) {
+            cachePut(key, counts.get(key.value));
+        }
+        return counts;
+    }
+
+    /**
+     * @method countDistinct
+     * @brief count, inside the XML Database, the distinct values of distinctField
+     * among the flows whose field is equal to the value passed as argument
+     * (e.g. how many distinct destinations a source has contacted)
+     * @param field is the FlowField used to filter the flows
+     * @param value is a String
+     * @param distinctField is the FlowField whose distinct values are counted
+     * @param since is a Timestamp, lower bound of the window (null for no bound)
+     * @param until is a Timestamp, upper bound of the window (null for no bound)
+     * @return return the number of distinct values, -1 on error
+     */
+    public long countDistinct(FlowField field, String value, FlowField distinctField,
+                              Timestamp since, Timestamp until) {
+        return count(new QueryKey(QueryType.DISTINCT, field, value, distinctField, since, until));
+    }
+
+    /**
+     * @method count
+     * @brief return the result of a count query, from the cache if present
+     * @param key is the QueryKey of the query
+     * @return long, -1 on error
+     */
+    private long count(QueryKey key) {
+        Long result = (Long) cache.getIfPresent(key);
+
+        if (result == null) {
+            BaseXClient client = acquireSession();
+            if (client == null) {
+                return -1;
+            }
             try {
-                this.saxParser.parse(new InputSource(
-                        new StringReader("<flows>" + resultAsString + "</flows>")), this.handler);
-            } catch (SAXException e) {
-                log.error(e.getMessage());
+                return loadCount(client, key);
+            } finally {
+                sessionLock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @method loadCount
+     * @brief execute the query of countFlows or countDistinct and store the
+     * result in the cache
+     * @param client is the session, held by the caller
+     * @param key is the QueryKey of the query
+     * @return long, -1 on error
+     */
+    private long loadCount(BaseXClient client, QueryKey key) {
+
+        String countQuery;
+        long result;
+        String flows = flowsPath(key.since, key.until);
+
+        Long cached = (Long) cache.asMap().get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (flows == null) {
+            result = 0;
+        } else {
+            if (key.type == QueryType.DISTINCT) {
+                countQuery = QUERY_PROLOG
+                        + "count(distinct-values(for $flow in " + flows + " "
+                        + whereClause(key.field) + " return $flow/" + key.otherField.element() + "))";
+            } else {
+                countQuery = QUERY_PROLOG
+                        + "count(for $flow in " + flows + " "
+                        + whereClause(key.field) + " return $flow)";
+            }
+
+            result = executeCount(client, countQuery, key.value, key.since, key.until);
+            if (result < 0) {
+                return result;
+            }
+        }
+
+        cachePut(key, result);
+        return result;
+    }
+
+    /**
+     * @method countGroupBy
+     * @brief count, inside the XML Database, the flows whose field is equal
+     * to the value passed as argument grouping them by the value of groupField
+     * (e.g. the flows of a source per destination port or per protocol)
+     * @param field is the FlowField used to filter the flows
+     * @param value is a String
+     * @param groupField is the FlowField used to group the flows
+     * @param since is a Timestamp, lower bound of the window (null for no bound)
+     * @param until is a Timestamp, upper bound of the window (null for no bound)
+     * @return return a map from the value of groupField to the number of flows,
+     * null on error
+     */
+    public Map<String, Long> countGroupBy(FlowField field, String value, FlowField groupField,
+                                          Timestamp since, Timestamp until) {
+
+        QueryKey key = new QueryKey(QueryType.GROUP, field, value, groupField, since, until);
+        @SuppressWarnings("unchecked")
+        Map<String, Long> groups = (Map<String, Long>) cache.getIfPresent(key);
+
+        if (groups == null) {
+            BaseXClient client = acquireSession();
+            if (client == null) {
                 return null;
+            }
+            try {
+                return loadGroups(client, key);
+            } finally {
+                sessionLock.unlock();
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * @method loadGroups
+     * @brief execute the query of countGroupBy and store the result in the cache
+     * @param client is the session, held by the caller
+     * @param key is the QueryKey of the query
+     * @return return a map from the value of the group field to the number of flows,
+     * null on error
+     */
+    private Map<String, Long> loadGroups(BaseXClient client, QueryKey key) {
+
+        Map<String, Long> groups = new HashMap<String, Long>();
+        String item;
+        int separator;
+        String flows = flowsPath(key.since, key.until);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Long> cached = (Map<String, Long>) cache.asMap().get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (flows != null) {
+            String groupQuery = QUERY_PROLOG
+                    + "for $flow in " + flows + " "
+                    + whereClause(key.field) + " "
+                    + "group by $key := $flow/" + key.otherField.element() + "/string() "
+                    + "return concat(count($flow), ' ', $key)";
+
+            try {
+                BaseXClient.Query query = prepare(client, groupQuery, key.value, key.since, key.until);
+                while ((item = query.next()) != null) {
+                    separator = item.indexOf(' ');
+                    groups.put(item.substring(separator + 1), Long.parseLong(item.substring(0, separator)));
+                }
+                query.close();
             } catch (IOException e) {
+                handleError(e);
+                return null;
+            } catch (NumberFormatException e) {
                 log.error(e.getMessage());
                 return null;
             }
+        }
+
+        groups = Collections.unmodifiableMap(groups);
+        cachePut(key, groups);
+        return groups;
+    }
+
+    /**
+     * @method getCacheStats
+     * @brief return the statistics (hits, misses, evictions) of the query cache
+     * @return CacheStats
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @method getCacheSize
+     * @brief return the number of query results in the cache
+     * @return long
+     */
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * @method cachePut
+     * @brief store a query result in the cache and index it by the field
+     * and the value the query filters on
+     * @param key is the QueryKey of the query
+     * @param result is the result of the query
+     * @return none
+     */
+    private synchronized void cachePut(QueryKey key, Object result) {
+        cache.put(key, result);
+
+        Set<QueryKey> keys = cacheIndex.computeIfAbsent(key.field, f -> new HashMap<String, Set<QueryKey>>())
+                .computeIfAbsent(key.value, v -> new HashSet<QueryKey>());
+        if (keys.add(key) && ++cacheIndexSize > INDEX_MAX_SIZE) {
+            sweepCacheIndex();
+        }
+    }
+
+    /**
+     * @method clearCache
+     * @brief drop all the cached query results and their index
+     * @return none
+     */
+    synchronized void clearCache() {
+        cache.invalidateAll();
+        cacheIndex.clear();
+        cacheIndexSize = 0;
+    }
+
+    /**
+     * @method sweepCacheIndex
+     * @brief drop from the index of the cache the queries no longer cached
+     * @return none
+     */
+    private synchronized void sweepCacheIndex() {
+        Map<QueryKey, Object> cached = cache.asMap();
+        for (Map<String, Set<QueryKey>> byValue : cacheIndex.values()) {
+            Iterator<Set<QueryKey>> sets = byValue.values().iterator();
+            while (sets.hasNext()) {
+                Set<QueryKey> keys = sets.next();
+                Iterator<QueryKey> it = keys.iterator();
+                while (it.hasNext()) {
+                    if (!cached.containsKey(it.next())) {
+                        it.remove();
+                        cacheIndexSize--;
+                    }
+                }
+                if (keys.isEmpty()) {
+                    sets.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @method updateCache
+     * @brief update the cached results of the queries that the flow just
+     * inserted matches, so that they stay consistent with the XML Database
+     * @param pkt is the inserted Flow
+     * @param timestamp is the Timestamp with which the flow was inserted
+     * @return none
+     */
+    private synchronized void updateCache(Flow pkt, Timestamp timestamp) {
+        for (Map.Entry<FlowField, Map<String, Set<QueryKey>>> byField : cacheIndex.entrySet()) {
+            String value = byField.getKey().valueOf(pkt);
+            Set<QueryKey> keys = value == null ? null : byField.getValue().get(value);
+            if (keys == null) {
+                continue;
+            }
+
+            Iterator<QueryKey> it = keys.iterator();
+            while (it.hasNext()) {
+                updateCache(it.next(), it, pkt, timestamp);
+            }
+            if (keys.isEmpty()) {
+                byField.getValue().remove(value);
+            }
+        }
+    }
 
-            queryResult = this.handler.getFlowsList();
+    // Update a cached query, removing it from the index if it was evicted
+    private void updateCache(QueryKey key, Iterator<QueryKey> index, Flow pkt, Timestamp timestamp) {
+        Object cached = cache.asMap().get(key);
+        if (cached == null) {
+            index.remove();
+            cacheIndexSize--;
+            return;
+        }
+
+        if (!key.matches(pkt, timestamp)) {
+            return;
+        }
+
+        switch (key.type) {
+            case FLOWS:
+                @SuppressWarnings("unchecked")
+                List<Flow> cachedFlows = (List<Flow>) cached;
+                // Copying a long list on every insert costs more than loading it again
+                if (cachedFlows.size() >= MAX_UPDATED_FLOWS) {
+                    cache.invalidate(key);
+                    index.remove();
+                    cacheIndexSize--;
+                    break;
+                }
+                List<Flow> flows = new ArrayList<Flow>(cachedFlows.size() + 1);
+                flows.addAll(cachedFlows);
+                flows.add(pkt);
+                cache.asMap().replace(key, cached, Collections.unmodifiableList(flows));
+                break;
+            case COUNT:
+                cache.asMap().replace(key, cached, (Long) cached + 1);
+                break;
+            case GROUP:
+                @SuppressWarnings("unchecked")
+                Map<String, Long> groups = new HashMap<String, Long>((Map<String, Long>) cached);
+                groups.merge(key.otherField.valueOf(pkt), 1L, Long::sum);
+                cache.asMap().replace(key, cached, Collections.unmodifiableMap(groups));
+                break;
+            default:
+                // The distinct values can't be updated without knowing them
+                cache.invalidate(key);
+                index.remove();
+                cacheIndexSize--;
+                break;
+        }
+    }
+
+    /**
+     * @method flowsPath
+     * @brief build the path that selects the flows, routing the query only to
+     * the partitions that overlap the time window
+     * @param since is a Timestamp (can be null)
+     * @param until is a Timestamp (can be null)
+     * @return String, null if no partition overlaps the time window
+     */
+    private String flowsPath(Timestamp since, Timestamp until) {
+        return flowsPath(partitions, since, until);
+    }
+
+    /**
+     * @method flowsPath
+     * @brief build the path that selects the flows of some partitions
+     * @param partitions are the names of the partitions, sorted by day
+     * @param since is a Timestamp (can be null)
+     * @param until is a Timestamp (can be null)
+     * @return String, null if no partition overlaps the time window
+     */
+    static String flowsPath(NavigableSet<String> partitions, Timestamp since, Timestamp until) {
+
+        if (since == null) {
+            // The whole database, flows stored before the partitioning included
+            return "db:open('" + DB_NAME + "')//flows/flow";
+        }
+
+        NavigableSet<String> overlapping = (until == null)
+                ? partitions.tailSet(partitionName(since), true)
+                : partitions.subSet(partitionName(since), true, partitionName(until), true);
+
+        if (overlapping.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder path = new StringBuilder("(");
+        for (String partition : overlapping) {
+            if (path.length() > 1) {
+                path.append(", ");
+            }
+            path.append("db:open('").append(DB_NAME).append("', '").append(partition).append("')");
+        }
+        return path.append(")/flows/flow").toString();
+    }
+
+    /**
+     * @method partitionName
+     * @brief return the name of the partition that contains the flows of the day
+     * of the timestamp
+     * @param timestamp is a Timestamp
+     * @return String
+     */
+    static String partitionName(Timestamp timestamp) {
+        return PARTITION_PREFIX + timestamp.toLocalDateTime().toLocalDate() + PARTITION_SUFFIX;
+    }
+
+    /**
+     * @method loadPartitions
+     * @brief create the database if needed and read the partitions already in it
+     * @param client is the session, held by the caller
+     * @throws IOException
+     */
+    private void loadPartitions(BaseXClient client) throws IOException {
+        String item;
+
+        client.query("if (db:exists('" + DB_NAME + "')) then () else db:create('" + DB_NAME + "')")
+                .execute();
+
+        BaseXClient.Query query = client.query("db:list('" + DB_NAME + "')");
+        while ((item = query.next()) != null) {
+            if (item.startsWith(PARTITION_PREFIX) && item.endsWith(PARTITION_SUFFIX)) {
+                partitions.add(item);
+            }
+        }
+        query.close();
+    }
+
+    /**
+     * @method createPartition
+     * @brief add to the database the (empty) document of a partition
+     * @param client is the session, held by the caller
+     * @param partition is the name of the partition
+     * @throws IOException
+     */
+    private void createPartition(BaseXClient client, String partition) throws IOException {
+        client.query("if (db:exists('" + DB_NAME + "', '" + partition + "')) then () "
+                + "else db:add('" + DB_NAME + "', <flows/>, '" + partition + "')").execute();
+        partitions.add(partition);
+    }
+
+    /**
+     * @method migrateLegacyFlows
+     * @brief move the flows stored before the partitioning, in the single
+     * fwdaskdb.xml document, to the partitions of their days and delete that
+     * document, so that the time windows and the retention see them. The
+     * flows without a valid timestamp go to the partition of today. It uses
+     * a session of its own, like the retention.
+     * @return none
+     */
+    private void migrateLegacyFlows() {
+        String legacy = "db:open('" + DB_NAME + "', '" + LEGACY_DOCUMENT + "')//flow";
+        List<String> days = new ArrayList<String>();
+        String item;
+
+        if (!isConnected()) {
+            return;
+        }
+
+        BaseXClient migrationSession = null;
+        try {
+            migrationSession = openSession(RETENTION_READ_TIMEOUT_MS);
+            if (!"true".equals(migrationSession.query("db:exists('" + DB_NAME + "', '" + LEGACY_DOCUMENT + "')")
+                    .execute().trim())) {
+                return;
+            }
+
+            BaseXClient.Query query = migrationSession.query("distinct-values(" + legacy
+                    + "/substring(timestamp, 1, 10))");
+            while ((item = query.next()) != null) {
+                days.add(item);
+            }
+            query.close();
+
+            for (String day : days) {
+                try {
+                    LocalDate date = LocalDate.parse(day);
+                    moveLegacyFlows(migrationSession, legacy + "[starts-with(timestamp, '" + date + "')]",
+                                    PARTITION_PREFIX + date + PARTITION_SUFFIX);
+                } catch (DateTimeParseException e) {
+                    log.debug(e.getMessage());
+                }
+            }
+            // The flows left have no valid timestamp
+            if (!"0".equals(migrationSession.query("count(" + legacy + ")").execute().trim())) {
+                moveLegacyFlows(migrationSession, legacy, partitionName(new Timestamp(System.currentTimeMillis())));
+            }
+
+            migrationSession.query("db:delete('" + DB_NAME + "', '" + LEGACY_DOCUMENT + "')").execute();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return;
+        } finally {
+            if (migrationSession != null) {
+                try {
+                    migrationSession.close();
+                } catch (IOException e) {
+                    log.debug(e.getMessage());
+                }
+            }
+            clearCache();
+        }
+
+        log.info("Flow history: moved the flows of {} days to their partitions", days.size());
+    }
+
+    /**
+     * @method moveLegacyFlows
+     * @brief move some flows to a partition, creating it if needed. The flows
+     * are copied and deleted by the same query.
+     * @param client is the session
+     * @param flows is the path of the flows to move
+     * @param partition is the name of the partition
+     * @throws IOException
+     */
+    private void moveLegacyFlows(BaseXClient client, String flows, String partition) throws IOException {
+        createPartition(client, partition);
+        client.query("let $flows := " + flows + " return (insert nodes $flows into db:open('" + DB_NAME
+                + "', '" + partition + "')/flows, delete nodes $flows)").execute();
+    }
+
+    /**
+     * @method applyRetention
+     * @brief drop the partitions older than retentionDays and compact the
+     * database. It uses a session of its own and does not hold the lock of
+     * the DBQuestioner, so the inserts and the queries don't wait for it.
+     * @return none
+     */
+    private void applyRetention() {
+        int days = retentionDays;
+
+        if (!isConnected() || days == 0) {
+            return;
+        }
+
+        String oldest = partitionName(Timestamp.valueOf(LocalDate.now().minusDays(days).atStartOfDay()));
+        List<String> expired = new ArrayList<String>(partitions.headSet(oldest, false));
+
+        if (expired.isEmpty()) {
+            return;
         }
-        return queryResult;
 
+        BaseXClient retentionSession = null;
+        try {
+            retentionSession = openSession(RETENTION_READ_TIMEOUT_MS);
+            for (String partition : expired) {
+                // The queries stop reading the partition before it is deleted
+                partitions.remove(partition);
+                retentionSession.query("db:delete('" + DB_NAME + "', '" + partition + "')").execute();
+            }
+            retentionSession.query("db:optimize('" + DB_NAME + "')").execute();
+        } catch (IOException e) {
+            // A broken connection is detected by the main session on its own
+            log.error(e.getMessage());
+            return;
+        } finally {
+            if (retentionSession != null) {
+                try {
+                    retentionSession.close();
+                } catch (IOException e) {
+                    log.debug(e.getMessage());
+                }
+            }
+            clearCache();
+        }
+
+        log.info("Flow history: dropped {} partitions older than {} days", expired.size(), days);
+    }
+
+    /**
+     * @method whereClause
+     * @brief build the where clause that filters the flows by field and time window,
+     * the values are bound to the external variables of QUERY_PROLOG
+     * @param field is the FlowField used to filter the flows
+     * @return String
+     */
+    static String whereClause(FlowField field) {
+        return whereClause(field, "$value");
+    }
+
+    /**
+     * @method whereClause
+     * @brief build the where clause that filters the flows by field and time window
+     * @param field is the FlowField used to filter the flows
+     * @param values is the XQuery expression of the accepted values
+     * @return String
+     */
+    static String whereClause(FlowField field, String values) {
+        return "where $flow/" + field.element() + " = " + values + " "
+                + "and ($since = '' or $flow/timestamp >= $since) "
+                + "and ($until = '' or $flow/timestamp <= $until)";
+    }
+
+    /**
+     * @method prepare
+     * @brief create a query and bind the filter value and the time window to it
+     * @param client is the session, held by the caller
+     * @param queryString is the query
+     * @param value is a String
+     * @param since is a Timestamp (can be null)
+     * @param until is a Timestamp (can be null)
+     * @return BaseXClient.Query
+     * @throws IOException
+     */
+    private BaseXClient.Query prepare(BaseXClient client, String queryString, String value,
+                                      Timestamp since, Timestamp until) throws IOException {
+        BaseXClient.Query query = client.query(queryString);
+
+        query.bind("$value", value);
+        query.bind("$since", since == null ? "" : since.toString());
+        query.bind("$until", until == null ? "" : until.toString());
+
+        return query;
+    }
+
+    /**
+     * @method execute
+     * @brief execute a query and return the whole result
+     * @return String
+     * @throws IOException
+     */
+    private String execute(BaseXClient client, String queryString, String value,
+                           Timestamp since, Timestamp until) throws IOException {
+        BaseXClient.Query query = prepare(client, queryString, value, since, until);
+        String result = query.execute();
+        query.close();
+        return result;
+    }
+
+    /**
+     * @method executeCount
+     * @brief execute a query that returns a single number
+     * @return long, -1 on error
+     */
+    private long executeCount(BaseXClient client, String queryString, String value,
+                              Timestamp since, Timestamp until) {
+        try {
+            return Long.parseLong(execute(client, queryString, value, since, until).trim());
+        } catch (IOException e) {
+            handleError(e);
+        } catch (NumberFormatException e) {
+            log.error(e.getMessage());
+        }
+
+        return -1;
+    }
+
+    enum QueryType {
+        FLOWS,
+        COUNT,
+        DISTINCT,
+        GROUP
+    }
+
+    /**
+     * @class QueryKey
+     * @brief Key of the query cache: the kind of query and its parameters.
+     * The start of a window without end is rounded down to the minute, the
+     * query is run with the rounded start.
+     */
+    static final class QueryKey {
+        final QueryType type;
+        final FlowField field;
+        final String value;
+        final FlowField otherField;
+        final Timestamp since;
+        final Timestamp until;
+
+        QueryKey(QueryType type, FlowField field, String value, FlowField otherField,
+                         Timestamp since, Timestamp until) {
+            this.type = type;
+            this.field = field;
+            this.value = value;
+            this.otherField = otherField;
+            this.since = windowStart(since, until);
+            this.until = until;
+        }
+
+        // The start of the window, rounded down to OPEN_WINDOW_BUCKET_MS if
+        // the window has no end
+        static Timestamp windowStart(Timestamp since, Timestamp until) {
+            if (since == null || until != null) {
+                return since;
+            }
+            return new Timestamp(Math.floorDiv(since.getTime(), OPEN_WINDOW_BUCKET_MS) * OPEN_WINDOW_BUCKET_MS);
+        }
+
+        // true if a flow seen at timestamp is selected by the query
+        boolean matches(Flow pkt, Timestamp timestamp) {
+            return field.valueOf(pkt).equals(value)
+                    && (since == null || !timestamp.before(since))
+                    && (until == null || !timestamp.after(until));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            QueryKey that = (QueryKey) o;
+            return type == that.type && field == that.field && otherField == that.otherField
+                    && Objects.equals(value, that.value) && Objects.equals(since, that.since)
+                    && Objects.equals(until, that.until);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, field, value, otherField, since, until);
+        }
     }
 
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.db;
+
+import org.onosproject.fwdask.Flow;
+
+/**
+ * @enum FlowField
+ * @brief Fields of a flow stored in the XML Database that can be used
+ * to filter, count or group the flows
+ */
+public enum FlowField {
+    VLAN("vlan"),
+    ETH_TYPE("ethType"),
+    SRC_MAC("srcMac"),
+    DEST_MAC("destMac"),
+    NET_PROTOCOL("netProtocol"),
+    SRC_IP("srcIp"),
+    DEST_IP("destIp"),
+    SRC_PORT("srcPort"),
+    DEST_PORT("destPort");
+
+    private final String element;
+
+    FlowField(String element) {
+        this.element = element;
+    }
+
+    /**
+     * @method element
+     * @brief name of the XML element that contains the field
+     * @return String
+     */
+    public String element() {
+        return element;
+    }
+
+    /**
+     * @method valueOf
+     * @brief value of the field in a flow, as it is stored in the XML Database
+     * @param flow is a Flow object
+     * @return String
+     */
+    public String valueOf(Flow flow) {
+        switch (this) {
+            case VLAN:
+                return String.valueOf(flow.getVlanID());
+            case ETH_TYPE:
+                return String.valueOf(flow.getEthType());
+            case SRC_MAC:
+                return flow.getSourceMac();
+            case DEST_MAC:
+                return flow.getDestinationMac();
+            case NET_PROTOCOL:
+                return String.valueOf(flow.getNetProtocol());
+            case SRC_IP:
+                return flow.getNetSource();
+            case DEST_IP:
+                return flow.getNetDestination();
+            case SRC_PORT:
+                return String.valueOf(flow.getTransportSource());
+            case DEST_PORT:
+                return String.valueOf(flow.getTransportDestination());
+            default:
+                return "";
+        }
+    }
+}
@@ -45,109 +45,149 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * @class FlowXmlHandler
- * @brief Helper class to parse the result of the queries made to the XML Database
+ * @brief Helper class to parse the result of the queries made to the XML Database.
+ * The handler can be reused: the state is reset at the beginning of every parse
+ * and every parse produces a new list of flows.
  */
 public class FlowXmlHandler extends DefaultHandler {
 
-    List<Flow> flowsList = null;
-    Flow flow = null;
+    private List<Flow> flowsList = null;
+    private Flow flow = null;
 
-    private boolean bVlan = false;
-    private boolean bEthType = false;
-    private boolean bSrc = false;
-    private boolean bDst = false;
-
-    private boolean bNetProtocol = false;
-    private boolean bLayer3Source = false;
-    private boolean bLayer3Destination = false;
-
-    private boolean bLayer4Source = false;
-    private boolean bLayer4Destination = false;
-
-    private boolean bTimestamp = false;
+    // Text of the current element, it can be delivered in more than one chunk
+    private final StringBuilder text = new StringBuilder(64);
 
     public List<Flow> getFlowsList() {
         return flowsList;
     }
 
+    @Override
+    public void startDocument() throws SAXException {
+        flowsList = new ArrayList<Flow>();
+        flow = null;
+        text.setLength(0);
+    }
+
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes)
             throws SAXException {
 
-        if (qName.equalsIgnoreCase("flow")) {
-            //initialize list
-            if (flowsList == null) {
-                flowsList = new ArrayList<Flow>();
-            }
-            if (flow == null) {
-                flow = new Flow();
-            }
-        } else if (qName.equalsIgnoreCase("vlan")) {
-            //set boolean values for fields, will be used in setting Flow variables
-            bVlan = true;
-        } else if (qName.equalsIgnoreCase("ethType")) {
-            bEthType = true;
-        } else if (qName.equalsIgnoreCase("srcMac")) {
-            bSrc = true;
-        } else if (qName.equalsIgnoreCase("destMac")) {
-            bDst = true;
-        } else if (qName.equalsIgnoreCase("netProtocol")) {
-            bNetProtocol = true;
-        } else if (qName.equalsIgnoreCase("srcIp")) {
-            bLayer3Source = true;
-        } else if (qName.equalsIgnoreCase("destIp")) {
-            bLayer3Destination = true;
-        } else if (qName.equalsIgnoreCase("srcPort")) {
-            bLayer4Source = true;
-        } else if (qName.equalsIgnoreCase("destPort")) {
-            bLayer4Destination = true;
-        } else if (qName.equalsIgnoreCase("timestamp")) {
-            bTimestamp = true;
+        if ("flow".equals(qName)) {
+            flow = new Flow();
         }
+        text.setLength(0);
     }
 
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (qName.equalsIgnoreCase("flow")) {
-            //add Flow object to list
-            flowsList.add(flow);
-            flow = null;
+
+        if (flow == null) {
+            return;
+        }
+
+        switch (qName) {
+            case "flow":
+                flowsList.add(flow);
+                flow = null;
+                break;
+            case "vlan":
+                flow.setVlanID(parseInt());
+                break;
+            case "ethType":
+                flow.setEthType(parseInt());
+                break;
+            case "srcMac":
+                flow.setSourceMac(text.toString());
+                break;
+            case "destMac":
+                flow.setDestinationMac(text.toString());
+                break;
+            case "netProtocol":
+                flow.setNetProtocol(parseInt());
+                break;
+            case "srcIp":
+                flow.setNetSource(text.toString());
+                break;
+            case "destIp":
+                flow.setNetDestination(text.toString());
+                break;
+            case "srcPort":
+                flow.setTransportSource(parseInt());
+                break;
+            case "destPort":
+                flow.setTransportDestination(parseInt());
+                break;
+            case "timestamp":
+                flow.setTimestamp(parseTimestamp());
+                break;
+            default:
+                break;
         }
+        text.setLength(0);
     }
 
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
+        if (flow != null) {
+            text.append(ch, start, length);
+        }
+    }
+
+    /**
+     * @method parseInt
+     * @brief parse the text of the current element as an int,
+     * without creating an intermediate String
+     * @return int
+     * @throws SAXException if the text is not a number
+     */
+    private int parseInt() throws SAXException {
+        int begin = 0;
+        int end = text.length();
+        boolean negative = false;
+        int value = 0;
+
+        while (begin < end && Character.isWhitespace(text.charAt(begin))) {
+            begin++;
+        }
+        while (end > begin && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (begin < end && text.charAt(begin) == '-') {
+            negative = true;
+            begin++;
+        }
+        if (begin == end) {
+            throw new SAXException("Invalid number: '" + text + "'");
+        }
+
+        for (int i = begin; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new SAXException("Invalid number: '" + text + "'");
+            }
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * @method parseTimestamp
+     * @brief parse the text of the current element as a Timestamp
+     * @return Timestamp, null if the flow was stored without timestamp
+     * @throws SAXException if the text is not a timestamp
+     */
+    private Timestamp parseTimestamp() throws SAXException {
+        String value = text.toString().trim();
+
+        if (value.isEmpty() || "null".equals(value)) {
+            return null;
+        }
 
-        if (bVlan) {
-            flow.setVlanID(Integer.parseInt(new String(ch, start, length)));
-            bVlan = false;
-        } else if (bEthType) {
-            flow.setEthType(Integer.parseInt(new String(ch, start, length)));
-            bEthType = false;
-        } else if (bSrc) {
-            flow.setSourceMac(new String(ch, start, length));
-            bSrc = false;
-        } else if (bDst) {
-            flow.setDestinationMac(new String(ch, start, length));
-            bDst = false;
-        } else if (bNetProtocol) {
-            flow.setNetProtocol(Integer.parseInt(new String(ch, start, length)));
-            bNetProtocol = false;
-        } else if (bLayer3Source) {
-            flow.setNetSource(new String(ch, start, length));
-            bLayer3Source = false;
-        } else if (bLayer3Destination) {
-            flow.setNetDestination(new String(ch, start, length));
-            bLayer3Destination = false;
-        } else if (bLayer4Source) {
-            flow.setTransportSource(Integer.parseInt(new String(ch, start, length)));
-            bLayer4Source = false;
-        } else if (bLayer4Destination) {
-            flow.setTransportDestination(Integer.parseInt(new String(ch, start, length)));
-            bLayer4Destination = false;
-        } else if (bTimestamp) {
-            flow.setTimestamp(Timestamp.valueOf(new String(ch, start, length)));
-            bLayer4Destination = false;
+        try {
+            return Timestamp.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            throw new SAXException("Invalid timestamp: '" + value + "'");
         }
     }
-}
\ No newline at end of file
+}
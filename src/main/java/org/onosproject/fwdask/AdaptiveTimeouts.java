@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthTypeCriterion;
+import org.onosproject.net.flow.criteria.IPProtocolCriterion;
+import org.onosproject.net.flow.criteria.TcpPortCriterion;
+import org.onosproject.net.flow.criteria.UdpPortCriterion;
+
+/**
+ * @class AdaptiveTimeouts
+ * @brief Learns the idle timeout of the rules of every flow class (the
+ * ether type, IP protocol and destination port the rules match).
+ * A rule installed again for a flow shortly after it expired means that
+ * the flow was still alive: the timeout of its class is doubled. A rule
+ * that expires after matching at most one packet means that the flow was
+ * short: the timeout of its class is slowly reduced.
+ * The timeouts stay between the minimum and the maximum configured.
+ */
+final class AdaptiveTimeouts {
+
+    public static final int DEFAULT_MIN_TIMEOUT = 5;
+    public static final int DEFAULT_MAX_TIMEOUT = 300;
+
+    // How many flow classes and expired rules are remembered
+    private static final int MAX_CLASSES = 4096;
+    private static final int MAX_REMOVED = 8192;
+
+    // A rule that matched at most these packets served a short flow
+    private static final long SHORT_FLOW_PACKETS = 1;
+
+    private volatile boolean enabled;
+    private volatile int baseTimeout;
+    private volatile int minTimeout = DEFAULT_MIN_TIMEOUT;
+    private volatile int maxTimeout = DEFAULT_MAX_TIMEOUT;
+
+    private final Map<Long, FlowClass> classes = new ConcurrentHashMap<Long, FlowClass>();
+
+    // Expired rules by device and selector, with the time they expired,
+    // and the rules the application asked to remove, guarded by removed
+    private final Map<RuleKey, Long> removed = new LinkedHashMap<RuleKey, Long>(MAX_REMOVED, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RuleKey, Long> eldest) {
+            return size() > MAX_REMOVED;
+        }
+    };
+    private final Map<RuleKey, Long> requested = new LinkedHashMap<RuleKey, Long>(MAX_REMOVED, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RuleKey, Long> eldest) {
+            return size() > MAX_REMOVED;
+        }
+    };
+
+    private final AtomicLong repacketIns = new AtomicLong();
+    private final AtomicLong avoided = new AtomicLong();
+
+    AdaptiveTimeouts(int baseTimeout) {
+        this.baseTimeout = baseTimeout;
+    }
+
+    /**
+     * @method configure
+     * @brief set the timeouts, the learnt timeouts are forgotten. The base
+     * timeout is applied even when the bounds are not valid
+     * @param enabled is true to learn the timeouts, false to always use the
+     * base timeout
+     * @param baseTimeout is the timeout of a new flow class, in seconds
+     * @param minTimeout is the smallest timeout, in seconds
+     * @param maxTimeout is the largest timeout, in seconds
+     * @return none
+     */
+    void configure(boolean enabled, int baseTimeout, int minTimeout, int maxTimeout) {
+        this.baseTimeout = baseTimeout;
+        if (minTimeout <= 0 || maxTimeout < minTimeout) {
+            throw new IllegalArgumentException("The timeouts must be positive and the minimum "
+                    + "can't be greater than the maximum");
+        }
+        this.enabled = enabled;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        classes.clear();
+    }
+
+    long repacketIns() {
+        return repacketIns.get();
+    }
+
+    long avoided() {
+        return avoided.get();
+    }
+
+    /**
+     * @method installed
+     * @brief account a rule that is being installed and return its timeout
+     * @param deviceId is the DeviceId of the device of the rule
+     * @param selector is the TrafficSelector of the rule
+     * @return int, the idle timeout of the rule in seconds
+     */
+    int installed(DeviceId deviceId, TrafficSelector selector) {
+        if (!enabled) {
+            return baseTimeout;
+        }
+
+        FlowClass flowClass = flowClass(selector);
+        if (flowClass == null) {
+            return baseTimeout;
+        }
+
+        Long removedAt;
+        synchronized (removed) {
+            removedAt = removed.remove(new RuleKey(deviceId, selector));
+        }
+
+        synchronized (flowClass) {
+            flowClass.installed++;
+            // The flow came back before the longest timeout: it was still alive
+            if (removedAt != null && System.currentTimeMillis() - removedAt <= maxTimeout * 1000L) {
+                flowClass.repacketIns++;
+                repacketIns.incrementAndGet();
+                flowClass.timeout = Math.min(maxTimeout, flowClass.timeout * 2);
+            }
+            return flowClass.timeout;
+        }
+    }
+
+    /**
+     * @method removeRequested
+     * @brief remember a rule that the application asked to remove, its
+     * removal is not an expiration
+     * @param rule is the FlowRule
+     * @return none
+     */
+    void removeRequested(FlowRule rule) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (removed) {
+            requested.put(new RuleKey(rule.deviceId(), rule.selector()), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @method removed
+     * @brief learn from a rule of the application that was removed
+     * @param entry is the FlowEntry of the rule
+     * @return none
+     */
+    void removed(FlowEntry entry) {
+        if (!enabled || entry.timeout() <= 0) {
+            return;
+        }
+
+        RuleKey ruleKey = new RuleKey(entry.deviceId(), entry.selector());
+        synchronized (removed) {
+            if (requested.remove(ruleKey) != null) {
+                return;
+            }
+        }
+
+        FlowClass flowClass = flowClass(entry.selector());
+        if (flowClass == null) {
+            return;
+        }
+
+        synchronized (removed) {
+            removed.put(ruleKey, System.currentTimeMillis());
+        }
+
+        // The rule lived for the time the flow was active plus its timeout
+        long active = entry.life() - entry.timeout();
+        long packets = entry.packets();
+        synchronized (flowClass) {
+            flowClass.removed++;
+            if (packets <= SHORT_FLOW_PACKETS) {
+                flowClass.timeout = Math.max(minTimeout, flowClass.timeout - Math.max(1, flowClass.timeout / 8));
+            }
+            // With the base timeout a flow active for so long would likely
+            // have expired and come back at least once
+            if (packets > 0 && entry.timeout() > baseTimeout && active > baseTimeout) {
+                flowClass.avoided++;
+                avoided.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @method statistics
+     * @brief snapshot of the learnt timeouts
+     * @return List of TimeoutStatistics
+     */
+    List<TimeoutStatistics> statistics() {
+        List<TimeoutStatistics> result = new ArrayList<TimeoutStatistics>();
+        for (FlowClass flowClass : classes.values()) {
+            synchronized (flowClass) {
+                result.add(new TimeoutStatistics(flowClass.name, flowClass.timeout, flowClass.installed,
+                        flowClass.removed, flowClass.repacketIns, flowClass.avoided));
+            }
+        }
+        return result;
+    }
+
+    void clear() {
+        classes.clear();
+        synchronized (removed) {
+            removed.clear();
+            requested.clear();
+        }
+    }
+
+    // Returns the class of the flows matched by a selector, null when too
+    // many classes are known already
+    private FlowClass flowClass(TrafficSelector selector) {
+        int ethType = 0;
+        int protocol = 0;
+        int port = 0;
+        for (Criterion cr : selector.criteria()) {
+            switch (cr.type()) {
+                case ETH_TYPE:
+                    ethType = ((EthTypeCriterion) cr).ethType().toShort() & 0xffff;
+                    break;
+                case IP_PROTO:
+                    protocol = ((IPProtocolCriterion) cr).protocol() & 0xff;
+                    break;
+                case TCP_DST:
+                    port = ((TcpPortCriterion) cr).tcpPort().toInt();
+                    break;
+                case UDP_DST:
+                    port = ((UdpPortCriterion) cr).udpPort().toInt();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        long key = ((long) ethType << 24) | (protocol << 16) | port;
+        FlowClass flowClass = classes.get(key);
+        if (flowClass == null) {
+            if (classes.size() >= MAX_CLASSES) {
+                return null;
+            }
+            flowClass = classes.computeIfAbsent(key,
+                    k -> new FlowClass(String.format("ethType=0x%04x proto=%d port=%d",
+                                                     k >>> 24, (k >>> 16) & 0xff, k & 0xffff),
+                                       Math.max(minTimeout, Math.min(maxTimeout, baseTimeout))));
+        }
+        return flowClass;
+    }
+
+    /**
+     * @class FlowClass
+     * @brief Learnt timeout and counters of a flow class, guarded by the
+     * FlowClass itself
+     */
+    private static final class FlowClass {
+        final String name;
+        int timeout;
+        long installed;
+        long removed;
+        long repacketIns;
+        long avoided;
+
+        FlowClass(String name, int timeout) {
+            this.name = name;
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * @class RuleKey
+     * @brief Device and selector of a rule
+     */
+    private static final class RuleKey {
+        final DeviceId deviceId;
+        final TrafficSelector selector;
+
+        RuleKey(DeviceId deviceId, TrafficSelector selector) {
+            this.deviceId = deviceId;
+            this.selector = selector;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RuleKey that = (RuleKey) o;
+            return deviceId.equals(that.deviceId) && selector.equals(that.selector);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, selector);
+        }
+    }
+}
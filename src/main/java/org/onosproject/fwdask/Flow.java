@@ -118,6 +118,15 @@ public class Flow {
         return layer3Destination;
     }
 
+    // Address that identifies the endpoints: the network address if
+    // available, the mac address otherwise.
+    public String getSourceAddress() {
+        return isNetworkInspectionSupported() ? layer3Source : src;
+    }
+    public String getDestinationAddress() {
+        return isNetworkInspectionSupported() ? layer3Destination : dst;
+    }
+
     // layer 4 get/set
     public boolean isTransportInspectionSupported() {
         if (ethType == Ethernet.TYPE_IPV4) {
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.fwdask;
+
+import org.onosproject.db.DBQuestioner;
+
+/**
+ * @class FlowContext
+ * @brief What the modules receive to give their opinion on a Flow: the flow,
+ * the DBQuestioner and some common features of the flow. The features are
+ * computed from in-memory counters the first time a module asks for them and
+ * are then shared by all the modules interrogated on the same flow.
+ */
+public final class FlowContext {
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final Flow flow;
+    private final DBQuestioner dbQuestioner;
+    private final FlowStatistics statistics;
+    private final long now;
+
+    // Memoised features, UNSET until computed. Modules are interrogated
+    // concurrently: a feature may be computed twice, with the same result.
+    private volatile long recentFlowsFromSource = UNSET;
+    private volatile long recentFlowsToDestination = UNSET;
+    private volatile long sourceFirstSeen = UNSET;
+    private volatile long distinctDestinationPorts = UNSET;
+    private volatile long pairAccepted = UNSET;
+    private volatile long pairDenied = UNSET;
+
+    /**
+     * Context without statistics: all the counters are 0.
+     */
+    public FlowContext(Flow flow, DBQuestioner dbQuestioner) {
+        this(flow, dbQuestioner, new FlowStatistics());
+    }
+
+    FlowContext(Flow flow, DBQuestioner dbQuestioner, FlowStatistics statistics) {
+        this.flow = flow;
+        this.dbQuestioner = dbQuestioner;
+        this.statistics = statistics;
+        this.now = FlowStatistics.timeOf(flow);
+    }
+
+    public Flow getFlow() {
+        return flow;
+    }
+
+    public DBQuestioner getDBQuestioner() {
+        return dbQuestioner;
+    }
+
+    /**
+     * @method getRecentFlowsFromSource
+     * @brief number of new flows from the source of the flow in the last minute
+     * (the flow included)
+     * @return long
+     */
+    public long getRecentFlowsFromSource() {
+        if (recentFlowsFromSource == UNSET) {
+            FlowStatistics.HostCounters counters = statistics.source(flow);
+            recentFlowsFromSource = counters == null ? 0 : counters.recentFlows(now);
+        }
+        return recentFlowsFromSource;
+    }
+
+    /**
+     * @method getRecentFlowsToDestination
+     * @brief number of new flows to the destination of the flow in the last minute
+     * (the flow included)
+     * @return long
+     */
+    public long getRecentFlowsToDestination() {
+        if (recentFlowsToDestination == UNSET) {
+            FlowStatistics.HostCounters counters = statistics.destination(flow);
+            recentFlowsToDestination = counters == null ? 0 : counters.recentFlows(now);
+        }
+        return recentFlowsToDestination;
+    }
+
+    /**
+     * @method getSourceFirstSeen
+     * @brief when the source of the flow sent its first flow
+     * @return the time in milliseconds, -1 if unknown
+     */
+    public long getSourceFirstSeen() {
+        if (sourceFirstSeen == UNSET) {
+            FlowStatistics.HostCounters counters = statistics.source(flow);
+            sourceFirstSeen = counters == null ? -1 : counters.firstSeen();
+        }
+        return sourceFirstSeen;
+    }
+
+    /**
+     * @method getDistinctDestinationPorts
+     * @brief number of distinct destination ports contacted by the source of the flow
+     * @return int
+     */
+    public int getDistinctDestinationPorts() {
+        if (distinctDestinationPorts == UNSET) {
+            FlowStatistics.HostCounters counters = statistics.source(flow);
+            distinctDestinationPorts = counters == null ? 0 : counters.distinctPorts();
+        }
+        return (int) distinctDestinationPorts;
+    }
+
+    /**
+     * @method getPairAccepted
+     * @brief number of flows between the source and the destination of the flow
+     * that were accepted by the operator
+     * @return int
+     */
+    public int getPairAccepted() {
+        if (pairAccepted == UNSET) {
+            FlowStatistics.DecisionCounters counters = statistics.pair(flow);
+            pairAccepted = counters == null ? 0 : counters.accepted();
+        }
+        return (int) pairAccepted;
+    }
+
+    /**
+     * @method getPairDenied
+     * @brief number of flows between the source and the destination of the flow
+     * that were denied by the operator
+     * @return int
+     */
+    public int getPairDenied() {
+        if (pairDenied == UNSET) {
+            FlowStatistics.DecisionCounters counters = statistics.pair(flow);
+            pairDenied = counters == null ? 0 : counters.denied();
+        }
+        return (int) pairDenied;
+    }
+}
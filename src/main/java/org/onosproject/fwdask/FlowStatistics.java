@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.fwdask;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * @class FlowStatistics
+ * @brief In-memory counters of the flows seen by the PolicyMaker and of the
+ * decisions taken on them, updated incrementally for every new flow.
+ * They are the source of the features of a FlowContext.
+ */
+final class FlowStatistics {
+
+    // Width of the window of the recent flows counters
+    static final long RECENT_WINDOW_MS = 60000;
+    private static final int WINDOW_BUCKETS = 12;
+
+    private static final long MAX_HOSTS = 65536;
+    private static final int MAX_TRACKED_PORTS = 1024;
+    private static final long IDLE_EXPIRATION_MINUTES = 60;
+
+    private final Cache<String, HostCounters> sources = newCache();
+    private final Cache<String, HostCounters> destinations = newCache();
+    private final Cache<String, DecisionCounters> pairs = newCache();
+
+    private static <V> Cache<String, V> newCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(MAX_HOSTS)
+                .expireAfterAccess(IDLE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * @method recordFlow
+     * @brief update the counters of the source and of the destination of a new flow
+     * @param pkt is a Flow object
+     * @return none
+     */
+    void recordFlow(Flow pkt) {
+        long now = timeOf(pkt);
+
+        try {
+            sources.get(pkt.getSourceAddress(), HostCounters::new)
+                    .record(now, pkt.getTransportDestination());
+            destinations.get(pkt.getDestinationAddress(), HostCounters::new)
+                    .record(now, pkt.getTransportDestination());
+        } catch (ExecutionException e) {
+            // HostCounters::new can't fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @method recordDecision
+     * @brief update the counters of the decisions taken for the pair of the flow
+     * @param pkt is a Flow object
+     * @param accepted is true if the flow was accepted
+     * @return none
+     */
+    void recordDecision(Flow pkt, boolean accepted) {
+        try {
+            pairs.get(pairKey(pkt), DecisionCounters::new).record(accepted);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    HostCounters source(Flow pkt) {
+        return sources.getIfPresent(pkt.getSourceAddress());
+    }
+
+    HostCounters destination(Flow pkt) {
+        return destinations.getIfPresent(pkt.getDestinationAddress());
+    }
+
+    DecisionCounters pair(Flow pkt) {
+        return pairs.getIfPresent(pairKey(pkt));
+    }
+
+    static long timeOf(Flow pkt) {
+        return pkt.getTimestamp() != null ? pkt.getTimestamp().getTime() : System.currentTimeMillis();
+    }
+
+    private static String pairKey(Flow pkt) {
+        return pkt.getSourceAddress() + "|" + pkt.getDestinationAddress();
+    }
+
+    /**
+     * @class HostCounters
+     * @brief Counters of a host: when it was first seen, how many flows it had
+     * in the recent window and the distinct destination ports of its flows
+     */
+    static final class HostCounters {
+        private final long firstSeen;
+        private final long[] buckets = new long[WINDOW_BUCKETS];
+        private final long[] bucketEpochs = new long[WINDOW_BUCKETS];
+        private final Set<Integer> ports = new HashSet<Integer>();
+
+        private HostCounters() {
+            this.firstSeen = System.currentTimeMillis();
+        }
+
+        synchronized void record(long now, int port) {
+            long epoch = now / (RECENT_WINDOW_MS / WINDOW_BUCKETS);
+            int bucket = (int) (epoch % WINDOW_BUCKETS);
+
+            if (bucketEpochs[bucket] != epoch) {
+                bucketEpochs[bucket] = epoch;
+                buckets[bucket] = 0;
+            }
+            buckets[bucket]++;
+
+            if (ports.size() < MAX_TRACKED_PORTS) {
+                ports.add(port);
+            }
+        }
+
+        long firstSeen() {
+            return firstSeen;
+        }
+
+        synchronized long recentFlows(long now) {
+            long epoch = now / (RECENT_WINDOW_MS / WINDOW_BUCKETS);
+            long count = 0;
+
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                if (epoch - bucketEpochs[i] < WINDOW_BUCKETS) {
+                    count += buckets[i];
+                }
+            }
+            return count;
+        }
+
+        synchronized int distinctPorts() {
+            return ports.size();
+        }
+    }
+
+    /**
+     * @class DecisionCounters
+     * @brief How many flows of a pair were accepted and denied
+     */
+    static final class DecisionCounters {
+        private int accepted = 0;
+        private int denied = 0;
+
+        synchronized void record(boolean acceptedFlow) {
+            if (acceptedFlow) {
+                accepted++;
+            } else {
+                denied++;
+            }
+        }
+
+        synchronized int accepted() {
+            return accepted;
+        }
+
+        synchronized int denied() {
+            return denied;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.List;
+
+/**
+ * @interface ForwardingAskService
+ * @brief Service exported by the fwdask application
+ */
+public interface ForwardingAskService {
+
+    /**
+     * @method getModuleStatistics
+     * @brief return the statistics of the decision-making modules
+     * @return List of ModuleStatistics
+     */
+    List<ModuleStatistics> getModuleStatistics();
+
+    /**
+     * @method getTimeoutStatistics
+     * @brief return the learnt idle timeouts of the flow classes
+     * @return List of TimeoutStatistics
+     */
+    List<TimeoutStatistics> getTimeoutStatistics();
+}
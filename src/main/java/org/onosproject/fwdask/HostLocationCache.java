@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.host.HostEvent;
+
+/**
+ * @class HostLocationCache
+ * @brief Location of the hosts, by HostId (the MAC address and the VLAN),
+ * kept up to date with the host events so that the packet processor never
+ * reads the host store.
+ */
+final class HostLocationCache {
+
+    private final Map<HostId, HostLocation> locations = new ConcurrentHashMap<HostId, HostLocation>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong moves = new AtomicLong();
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long moves() {
+        return moves.get();
+    }
+
+    int size() {
+        return locations.size();
+    }
+
+    /**
+     * @method load
+     * @brief add the hosts already known, without overwriting the locations
+     * received meanwhile from the events
+     * @param hosts are the known hosts
+     * @return none
+     */
+    void load(Iterable<Host> hosts) {
+        for (Host host : hosts) {
+            locations.putIfAbsent(host.id(), host.location());
+        }
+    }
+
+    /**
+     * @method location
+     * @brief location of a host
+     * @param id is the HostId of the host
+     * @return HostLocation, null if the host is unknown
+     */
+    HostLocation location(HostId id) {
+        HostLocation location = locations.get(id);
+        if (location != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return location;
+    }
+
+    /**
+     * @method update
+     * @brief apply a host event to the cache
+     * @param event is the HostEvent
+     * @return boolean, true if a known host moved to another location
+     */
+    boolean update(HostEvent event) {
+        Host host = event.subject();
+        switch (event.type()) {
+            case HOST_ADDED:
+            case HOST_UPDATED:
+                locations.put(host.id(), host.location());
+                return false;
+            case HOST_MOVED:
+                HostLocation previous = locations.put(host.id(), host.location());
+                if (previous == null || !previous.equals(host.location())) {
+                    moves.incrementAndGet();
+                    return true;
+                }
+                return false;
+            case HOST_REMOVED:
+                locations.remove(host.id());
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    void clear() {
+        locations.clear();
+    }
+}
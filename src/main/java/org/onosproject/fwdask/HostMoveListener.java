@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @class HostMoveListener
+ * @brief Keeps the HostLocationCache up to date with the host events and,
+ * when a host moves, removes the flow rules of the application from and to
+ * it, so that the next packets are forwarded towards its new location.
+ */
+final class HostMoveListener implements HostListener {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final HostLocationCache locations;
+    private final InstalledRuleIndex rules;
+    private final Consumer<FlowRule[]> remover;
+
+    /**
+     * @param locations is the HostLocationCache to update
+     * @param rules is the InstalledRuleIndex of the rules of the application
+     * @param remover removes a batch of flow rules (e.g.
+     * FlowRuleService::removeFlowRules)
+     */
+    HostMoveListener(HostLocationCache locations, InstalledRuleIndex rules, Consumer<FlowRule[]> remover) {
+        this.locations = locations;
+        this.rules = rules;
+        this.remover = remover;
+    }
+
+    @Override
+    public void event(HostEvent event) {
+        if (!locations.update(event)) {
+            return;
+        }
+
+        List<FlowRule> stale = rules.forMac(event.subject().mac());
+        if (!stale.isEmpty()) {
+            log.trace("Host " + event.subject().mac() + " moved, removing " + stale.size() + " flow rules");
+            remover.accept(stale.toArray(new FlowRule[stale.size()]));
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+
+/**
+ * @class InstalledRuleIndex
+ * @brief Index of the flow rules installed by the application, by egress
+ * connect point, by source and destination MAC addresses and by device.
+ * It is updated with the flow rule events, so that repairing the network
+ * after a failure only touches the rules involved.
+ */
+final class InstalledRuleIndex {
+
+    private final short appId;
+
+    // All the structures are guarded by the index itself
+    private final Map<FlowId, IndexedRule> rules = new HashMap<FlowId, IndexedRule>();
+    private final Map<ConnectPoint, Set<IndexedRule>> byEgress = new HashMap<ConnectPoint, Set<IndexedRule>>();
+    private final Map<MacAddress, Set<IndexedRule>> byMac = new HashMap<MacAddress, Set<IndexedRule>>();
+    private final Map<DeviceId, Map<MacPair, Set<IndexedRule>>> byDevice =
+            new HashMap<DeviceId, Map<MacPair, Set<IndexedRule>>>();
+
+    InstalledRuleIndex(short appId) {
+        this.appId = appId;
+    }
+
+    synchronized int size() {
+        return rules.size();
+    }
+
+    /**
+     * @method load
+     * @brief add the rules already installed
+     * @param installed are the rules installed by the application
+     * @return none
+     */
+    void load(Iterable<? extends FlowRule> installed) {
+        for (FlowRule rule : installed) {
+            add(rule);
+        }
+    }
+
+    /**
+     * @method update
+     * @brief apply a flow rule event to the index, the rules of the other
+     * applications are ignored
+     * @param event is the FlowRuleEvent
+     * @return none
+     */
+    void update(FlowRuleEvent event) {
+        FlowRule rule = event.subject();
+        if (rule.appId() != appId) {
+            return;
+        }
+
+        switch (event.type()) {
+            case RULE_ADD_REQUESTED:
+            case RULE_ADDED:
+            case RULE_UPDATED:
+                add(rule);
+                break;
+            case RULE_REMOVE_REQUESTED:
+            case RULE_REMOVED:
+                remove(rule);
+                break;
+            default:
+                break;
+        }
+    }
+
+    synchronized void add(FlowRule rule) {
+        IndexedRule previous = rules.get(rule.id());
+        if (previous != null) {
+            unlink(previous);
+        }
+
+        IndexedRule indexed = new IndexedRule(rule);
+        rules.put(rule.id(), indexed);
+        for (PortNumber port : indexed.outputs) {
+            link(byEgress, new ConnectPoint(rule.deviceId(), port), indexed);
+        }
+        link(byDevice.computeIfAbsent(rule.deviceId(), d -> new HashMap<MacPair, Set<IndexedRule>>()),
+                indexed.pair, indexed);
+        if (indexed.pair.src != null) {
+            link(byMac, indexed.pair.src, indexed);
+        }
+        if (indexed.pair.dst != null && !indexed.pair.dst.equals(indexed.pair.src)) {
+            link(byMac, indexed.pair.dst, indexed);
+        }
+    }
+
+    synchronized void remove(FlowRule rule) {
+        IndexedRule indexed = rules.remove(rule.id());
+        if (indexed != null) {
+            unlink(indexed);
+        }
+    }
+
+    synchronized void clear() {
+        rules.clear();
+        byEgress.clear();
+        byMac.clear();
+        byDevice.clear();
+    }
+
+    /**
+     * @method fromEgress
+     * @brief rules that send the packets out of a connect point
+     * @param egress is the ConnectPoint
+     * @return List<FlowRule>
+     */
+    synchronized List<FlowRule> fromEgress(ConnectPoint egress) {
+        return copy(byEgress.get(egress));
+    }
+
+    /**
+     * @method forPair
+     * @brief rules of a device that match a source and destination MAC pair
+     * @param src is the source MacAddress
+     * @param dst is the destination MacAddress
+     * @param deviceId is the DeviceId of the device
+     * @return List<FlowRule>
+     */
+    synchronized List<FlowRule> forPair(MacAddress src, MacAddress dst, DeviceId deviceId) {
+        Map<MacPair, Set<IndexedRule>> onDevice = byDevice.get(deviceId);
+        if (onDevice == null) {
+            return Collections.emptyList();
+        }
+        return copy(onDevice.get(new MacPair(src, dst)));
+    }
+
+    /**
+     * @method forMac
+     * @brief rules that match a MAC address as source or destination
+     * @param mac is the MacAddress
+     * @return List<FlowRule>
+     */
+    synchronized List<FlowRule> forMac(MacAddress mac) {
+        return copy(byMac.get(mac));
+    }
+
+    private void unlink(IndexedRule indexed) {
+        for (PortNumber port : indexed.outputs) {
+            unlink(byEgress, new ConnectPoint(indexed.rule.deviceId(), port), indexed);
+        }
+        if (indexed.pair.src != null) {
+            unlink(byMac, indexed.pair.src, indexed);
+        }
+        if (indexed.pair.dst != null) {
+            unlink(byMac, indexed.pair.dst, indexed);
+        }
+        Map<MacPair, Set<IndexedRule>> onDevice = byDevice.get(indexed.rule.deviceId());
+        if (onDevice != null) {
+            unlink(onDevice, indexed.pair, indexed);
+            if (onDevice.isEmpty()) {
+                byDevice.remove(indexed.rule.deviceId());
+            }
+        }
+    }
+
+    private static <K> void link(Map<K, Set<IndexedRule>> map, K key, IndexedRule indexed) {
+        map.computeIfAbsent(key, k -> new HashSet<IndexedRule>()).add(indexed);
+    }
+
+    private static <K> void unlink(Map<K, Set<IndexedRule>> map, K key, IndexedRule indexed) {
+        Set<IndexedRule> set = map.get(key);
+        if (set != null && set.remove(indexed) && set.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    private static List<FlowRule> copy(Set<IndexedRule> indexed) {
+        if (indexed == null) {
+            return Collections.emptyList();
+        }
+
+        List<FlowRule> result = new ArrayList<FlowRule>(indexed.size());
+        for (IndexedRule r : indexed) {
+            result.add(r.rule);
+        }
+        return result;
+    }
+
+    /**
+     * @class IndexedRule
+     * @brief A rule with the fields it is indexed by. It uses the identity
+     * equality: the same FlowId is indexed once.
+     */
+    private static final class IndexedRule {
+        final FlowRule rule;
+        final MacPair pair;
+        final List<PortNumber> outputs = new ArrayList<PortNumber>(1);
+
+        IndexedRule(FlowRule rule) {
+            this.rule = rule;
+
+            MacAddress src = null, dst = null;
+            for (Criterion cr : rule.selector().criteria()) {
+                if (cr.type() == Criterion.Type.ETH_DST) {
+                    dst = ((EthCriterion) cr).mac();
+                } else if (cr.type() == Criterion.Type.ETH_SRC) {
+                    src = ((EthCriterion) cr).mac();
+                }
+            }
+            this.pair = new MacPair(src, dst);
+
+            for (Instruction i : rule.treatment().allInstructions()) {
+                if (i.type() == Instruction.Type.OUTPUT) {
+                    outputs.add(((Instructions.OutputInstruction) i).port());
+                }
+            }
+        }
+    }
+
+    /**
+     * @class MacPair
+     * @brief Source and destination MAC addresses of a rule, either can be
+     * null when the rule does not match it
+     */
+    private static final class MacPair {
+        final MacAddress src;
+        final MacAddress dst;
+
+        MacPair(MacAddress src, MacAddress dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            MacPair that = (MacPair) o;
+            return Objects.equals(src, that.src) && Objects.equals(dst, that.dst);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(src, dst);
+        }
+    }
+}
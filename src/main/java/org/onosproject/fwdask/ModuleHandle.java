@@ -0,0 +1,291 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.fwdask;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onosproject.modules.Module;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * @class ModuleHandle
+ * @brief Wrapper of a loaded Module with the state that the PolicyMaker keeps for it
+ */
+final class ModuleHandle {
+
+    private static final long OPINION_CACHE_MAX_SIZE = 4096;
+
+    // Cached when the module returns null, Guava caches can't hold null values
+    static final Module.Opinion NO_OPINION = new Module.Opinion(false, 0);
+
+    private final Module module;
+    private final String name;
+    private final Module.OpinionScope scope;
+    private final int cost;
+    private final float weight;
+    private final boolean veto;
+
+    // null if the module doesn't allow to reuse its opinions
+    private final Cache<String, Module.Opinion> opinionCache;
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * @enum State
+     * @brief How the module takes part in the decisions: ACTIVE modules are
+     * interrogated normally, ADVISORY modules are interrogated in background
+     * and their opinions are ignored, DISABLED modules are not interrogated
+     */
+    enum State {
+        ACTIVE,
+        ADVISORY,
+        DISABLED
+    }
+
+    private volatile State state = State.ACTIVE;
+
+    // Latency of givesOpinion, the percentiles are biased toward the last minutes
+    private final Timer latency = new Timer();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong cpuTime = new AtomicLong();
+
+    // An advisory module is interrogated on one flow at a time
+    private final AtomicBoolean advisoryRunning = new AtomicBoolean(false);
+
+    // null if the module doesn't override givesOpinions
+    private final OpinionBatcher batcher;
+
+    ModuleHandle(Module module, Executor executor) {
+        this.module = module;
+        this.name = module.getClass().getSimpleName();
+        this.scope = module.opinionScope();
+        this.cost = module.cost();
+        this.weight = module.weight();
+        this.veto = module.isVeto();
+
+        if (weight <= 0) {
+            throw new IllegalArgumentException(name + ": the weight must be greater than 0");
+        }
+        float maxConfidence = module.maxConfidence();
+        if (maxConfidence < 0 || maxConfidence > 100) {
+            throw new IllegalArgumentException(name + ": the max confidence must be a percentage");
+        }
+
+        if (scope != Module.OpinionScope.NONE && module.opinionTtl() > 0) {
+            this.opinionCache = CacheBuilder.newBuilder()
+                    .maximumSize(OPINION_CACHE_MAX_SIZE)
+                    .expireAfterWrite(module.opinionTtl(), TimeUnit.MILLISECONDS)
+                    .recordStats()
+                    .build();
+        } else {
+            this.opinionCache = null;
+        }
+
+        this.batcher = overridesBatch(module) ? new OpinionBatcher(this, executor) : null;
+    }
+
+    private static boolean overridesBatch(Module module) {
+        try {
+            return module.getClass().getMethod("givesOpinions", List.class).getDeclaringClass() != Module.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    Module module() {
+        return module;
+    }
+
+    String name() {
+        return name;
+    }
+
+    int cost() {
+        return cost;
+    }
+
+    float weight() {
+        return weight;
+    }
+
+    // Asked every time, it can change (e.g. when the rules are compiled again)
+    float maxConfidence() {
+        return Math.max(0, Math.min(100, module.maxConfidence()));
+    }
+
+    boolean isVeto() {
+        return veto;
+    }
+
+    State state() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    Timer latency() {
+        return latency;
+    }
+
+    /**
+     * @method evaluate
+     * @brief interrogate the module, accounting its latency, cpu time and errors
+     * @param context is the FlowContext of the flow
+     * @return Module.Opinion, can be null
+     */
+    Module.Opinion evaluate(FlowContext context) {
+        long start = System.nanoTime();
+        long cpuStart = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+
+        try {
+            return module.givesOpinion(context);
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            throw e;
+        } finally {
+            latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (cpuStart >= 0) {
+                cpuTime.addAndGet(THREAD_MX_BEAN.getCurrentThreadCpuTime() - cpuStart);
+            }
+        }
+    }
+
+    /**
+     * @method evaluateBatch
+     * @brief interrogate the module on a batch of flows, every flow is
+     * accounted with the latency of the whole batch
+     * @param contexts is the List of the FlowContext of the flows
+     * @return List of Module.Opinion, in the same order of the contexts
+     */
+    List<Module.Opinion> evaluateBatch(List<FlowContext> contexts) {
+        long start = System.nanoTime();
+        long cpuStart = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+
+        try {
+            List<Module.Opinion> opinions = module.givesOpinions(contexts);
+            if (opinions == null || opinions.size() != contexts.size()) {
+                throw new IllegalStateException(name + " gave " + (opinions == null ? 0 : opinions.size())
+                        + " opinions on " + contexts.size() + " flows");
+            }
+            return opinions;
+        } catch (RuntimeException e) {
+            errors.addAndGet(contexts.size());
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            for (int i = 0; i < contexts.size(); i++) {
+                latency.update(elapsed, TimeUnit.NANOSECONDS);
+            }
+            if (cpuStart >= 0) {
+                cpuTime.addAndGet(THREAD_MX_BEAN.getCurrentThreadCpuTime() - cpuStart);
+            }
+        }
+    }
+
+    /**
+     * @method batcher
+     * @brief return the OpinionBatcher of the module
+     * @return OpinionBatcher, null if the module answers one flow at a time
+     */
+    OpinionBatcher batcher() {
+        return batcher;
+    }
+
+    /**
+     * @method tryStartAdvisory
+     * @brief check that no advisory evaluation of the module is running and
+     * mark one as running, finishAdvisory must be called when it ends
+     * @return boolean
+     */
+    boolean tryStartAdvisory() {
+        return advisoryRunning.compareAndSet(false, true);
+    }
+
+    void finishAdvisory() {
+        advisoryRunning.set(false);
+    }
+
+    void timedOut() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * @method statistics
+     * @brief return a snapshot of the statistics of the module
+     * @return ModuleStatistics
+     */
+    ModuleStatistics statistics() {
+        Snapshot snapshot = latency.getSnapshot();
+
+        return new ModuleStatistics(name, state.name(), cost, latency.getCount(), errors.get(),
+                timeouts.get(), TimeUnit.NANOSECONDS.toMicros((long) snapshot.getMean()),
+                TimeUnit.NANOSECONDS.toMicros((long) snapshot.getMedian()),
+                TimeUnit.NANOSECONDS.toMicros((long) snapshot.get99thPercentile()),
+                TimeUnit.NANOSECONDS.toMicros(cpuTime.get()), opinionCacheStats().hitRate());
+    }
+
+    /**
+     * @method cachedOpinion
+     * @brief return the opinion given by the module on a flow it can't
+     * distinguish from pkt
+     * @param pkt is a Flow object
+     * @return Module.Opinion, NO_OPINION if the module had no opinion,
+     * null if there is no cached opinion
+     */
+    Module.Opinion cachedOpinion(Flow pkt) {
+        if (opinionCache == null) {
+            return null;
+        }
+        return opinionCache.getIfPresent(scope.key(pkt));
+    }
+
+    /**
+     * @method cacheOpinion
+     * @brief store the opinion given by the module on pkt
+     * @param pkt is a Flow object
+     * @param opinion is a Module.Opinion, can be null
+     * @return none
+     */
+    void cacheOpinion(Flow pkt, Module.Opinion opinion) {
+        if (opinionCache != null) {
+            opinionCache.put(scope.key(pkt), opinion == null ? NO_OPINION : opinion);
+        }
+    }
+
+    /**
+     * @method opinionCacheStats
+     * @brief return the statistics of the opinion cache of the module
+     * @return CacheStats, empty if the module doesn't reuse its opinions
+     */
+    CacheStats opinionCacheStats() {
+        return opinionCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : opinionCache.stats();
+    }
+}
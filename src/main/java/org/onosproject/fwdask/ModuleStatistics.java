@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.fwdask;
+
+/**
+ * @class ModuleStatistics
+ * @brief Snapshot of the statistics of a module: how many times it was
+ * interrogated, how long it took and how often it failed
+ */
+public final class ModuleStatistics {
+
+    private final String name;
+    private final String state;
+    private final int cost;
+    private final long calls;
+    private final long errors;
+    private final long timeouts;
+    private final long meanLatency;
+    private final long medianLatency;
+    private final long p99Latency;
+    private final long cpuTime;
+    private final double opinionCacheHitRate;
+
+    ModuleStatistics(String name, String state, int cost, long calls, long errors, long timeouts,
+                     long meanLatency, long medianLatency, long p99Latency, long cpuTime,
+                     double opinionCacheHitRate) {
+        this.name = name;
+        this.state = state;
+        this.cost = cost;
+        this.calls = calls;
+        this.errors = errors;
+        this.timeouts = timeouts;
+        this.meanLatency = meanLatency;
+        this.medianLatency = medianLatency;
+        this.p99Latency = p99Latency;
+        this.cpuTime = cpuTime;
+        this.opinionCacheHitRate = opinionCacheHitRate;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // ACTIVE, ADVISORY or DISABLED
+    public String state() {
+        return state;
+    }
+
+    public int cost() {
+        return cost;
+    }
+
+    public long calls() {
+        return calls;
+    }
+
+    public long errors() {
+        return errors;
+    }
+
+    public long timeouts() {
+        return timeouts;
+    }
+
+    // latencies and cpu time are in microseconds
+    public long meanLatency() {
+        return meanLatency;
+    }
+
+    public long medianLatency() {
+        return medianLatency;
+    }
+
+    public long p99Latency() {
+        return p99Latency;
+    }
+
+    public long cpuTime() {
+        return cpuTime;
+    }
+
+    public double opinionCacheHitRate() {
+        return opinionCacheHitRate;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flowobjective.FlowObjectiveService;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
+/**
+ * @class ObjectiveBatcher
+ * @brief Queues the forwarding objectives of every device and submits them
+ * in batches, when batchSize objectives are queued or flushWindow
+ * milliseconds after the first one. Within a batch the objectives with the
+ * same selector are collapsed, the last one wins: during a burst of
+ * packet-ins of the same flow a single rule is installed.
+ */
+final class ObjectiveBatcher {
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final int DEFAULT_FLUSH_WINDOW = 5;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final FlowObjectiveService flowObjectiveService;
+    private final ScheduledExecutorService executor;
+    private final Map<DeviceId, DeviceQueue> queues = new ConcurrentHashMap<DeviceId, DeviceQueue>();
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    // 0 disables the batching
+    private volatile int flushWindow = DEFAULT_FLUSH_WINDOW;
+
+    private final Histogram batchSizes = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Timer flushLatency = new Timer();
+    private final AtomicLong collapsed = new AtomicLong();
+
+    ObjectiveBatcher(FlowObjectiveService flowObjectiveService, ScheduledExecutorService executor) {
+        this.flowObjectiveService = flowObjectiveService;
+        this.executor = executor;
+    }
+
+    void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be a positive number");
+        }
+        this.batchSize = batchSize;
+    }
+
+    void setFlushWindow(int flushWindow) {
+        if (flushWindow < 0) {
+            throw new IllegalArgumentException("The flush window can't be negative");
+        }
+        this.flushWindow = flushWindow;
+        if (flushWindow == 0) {
+            flushAll();
+        }
+    }
+
+    // true if the objectives can be installed after the packet-out
+    boolean isBatching() {
+        return flushWindow > 0;
+    }
+
+    Histogram batchSizes() {
+        return batchSizes;
+    }
+
+    Timer flushLatency() {
+        return flushLatency;
+    }
+
+    long collapsed() {
+        return collapsed.get();
+    }
+
+    /**
+     * @method submit
+     * @brief queue a forwarding objective for a device
+     * @param deviceId is the DeviceId of the device
+     * @param objective is the ForwardingObjective
+     * @return boolean, false if it replaced an objective with the same
+     * selector that was already queued
+     */
+    boolean submit(DeviceId deviceId, ForwardingObjective objective) {
+        int window = flushWindow;
+        if (window == 0) {
+            flowObjectiveService.forward(deviceId, objective);
+            return true;
+        }
+
+        DeviceQueue queue = queues.computeIfAbsent(deviceId, DeviceQueue::new);
+        boolean full;
+        boolean replaced;
+        synchronized (queue) {
+            replaced = queue.pending.put(objective.selector(), objective) != null;
+            if (replaced) {
+                collapsed.incrementAndGet();
+            }
+
+            if (queue.pending.size() == 1) {
+                queue.firstQueued = System.nanoTime();
+                try {
+                    queue.timer = executor.schedule(() -> flush(queue), window, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    queue.timer = null;
+                }
+            }
+            full = queue.pending.size() >= batchSize || queue.timer == null;
+        }
+
+        if (full) {
+            flush(queue);
+        }
+        return !replaced;
+    }
+
+    /**
+     * @method flushAll
+     * @brief submit at once the objectives queued for all the devices
+     * @return none
+     */
+    void flushAll() {
+        queues.values().forEach(this::flush);
+    }
+
+    private void flush(DeviceQueue queue) {
+        List<ForwardingObjective> batch;
+        long firstQueued;
+
+        synchronized (queue) {
+            if (queue.pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<ForwardingObjective>(queue.pending.values());
+            firstQueued = queue.firstQueued;
+            queue.pending.clear();
+            if (queue.timer != null) {
+                queue.timer.cancel(false);
+                queue.timer = null;
+            }
+        }
+
+        for (ForwardingObjective objective : batch) {
+            try {
+                flowObjectiveService.forward(queue.deviceId, objective);
+            } catch (RuntimeException e) {
+                log.error(e.getMessage());
+            }
+        }
+
+        batchSizes.update(batch.size());
+        flushLatency.update(System.nanoTime() - firstQueued, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @class DeviceQueue
+     * @brief Objectives waiting to be submitted to a device, guarded by the
+     * DeviceQueue itself
+     */
+    private static final class DeviceQueue {
+        final DeviceId deviceId;
+        final Map<TrafficSelector, ForwardingObjective> pending =
+                new LinkedHashMap<TrafficSelector, ForwardingObjective>();
+        long firstQueued;
+        ScheduledFuture<?> timer;
+
+        DeviceQueue(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+}
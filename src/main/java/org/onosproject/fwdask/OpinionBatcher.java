@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.onosproject.modules.Module;
+
+/**
+ * @class OpinionBatcher
+ * @brief Collects the flows waiting for the opinion of a module and asks
+ * them to the module in batches. At most one batch per module is running:
+ * the flows that arrive meanwhile are asked all together in the next one,
+ * so a single flow is not delayed when the module is idle.
+ */
+final class OpinionBatcher {
+
+    static final int MAX_BATCH_SIZE = 1024;
+
+    private final ModuleHandle handle;
+    private final Executor executor;
+    private final Queue<Request> queue = new ConcurrentLinkedQueue<Request>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    OpinionBatcher(ModuleHandle handle, Executor executor) {
+        this.handle = handle;
+        this.executor = executor;
+    }
+
+    /**
+     * @method submit
+     * @brief queue a flow for the next batch
+     * @param context is the FlowContext of the flow
+     * @return CompletableFuture of the Module.Opinion, cancel it to drop the
+     * flow from the batches not started yet
+     */
+    CompletableFuture<Module.Opinion> submit(FlowContext context) {
+        Request request = new Request(context);
+        queue.add(request);
+
+        if (running.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                request.future.completeExceptionally(e);
+            }
+        }
+        return request.future;
+    }
+
+    private void drain() {
+        do {
+            List<Request> batch = new ArrayList<Request>();
+            Request request;
+            while (batch.size() < MAX_BATCH_SIZE && (request = queue.poll()) != null) {
+                // The flows that already missed the deadline are not asked
+                if (!request.future.isDone()) {
+                    batch.add(request);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                evaluate(batch);
+            }
+
+            running.set(false);
+        } while (!queue.isEmpty() && running.compareAndSet(false, true));
+    }
+
+    private void evaluate(List<Request> batch) {
+        List<FlowContext> contexts = new ArrayList<FlowContext>(batch.size());
+        for (Request request : batch) {
+            contexts.add(request.context);
+        }
+
+        try {
+            List<Module.Opinion> opinions = handle.evaluateBatch(contexts);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(opinions.get(i));
+            }
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Request {
+        final FlowContext context;
+        final CompletableFuture<Module.Opinion> future = new CompletableFuture<Module.Opinion>();
+
+        Request(FlowContext context) {
+            this.context = context;
+        }
+    }
+}
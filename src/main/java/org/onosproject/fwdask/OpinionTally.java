@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.fwdask;
+
+import java.util.List;
+
+import org.onosproject.modules.Module;
+
+/**
+ * @class OpinionTally
+ * @brief Weighted averages of the opinions received so far for a flow.
+ * The flow is accepted if the average confidence of the modules that want
+ * it is greater than the one of the modules that don't, unless a veto
+ * module doesn't want it.
+ */
+final class OpinionTally {
+
+    private float sumYes = 0;
+    private float weightYes = 0;
+    private float sumNo = 0;
+    private float weightNo = 0;
+    private Module.Opinion veto = null;
+
+    /**
+     * @method add
+     * @brief add the opinion of a module
+     * @param handle is the ModuleHandle of the module
+     * @param opinion is a Module.Opinion
+     * @return none
+     */
+    void add(ModuleHandle handle, Module.Opinion opinion) {
+        if (opinion.wantsFlow()) {
+            sumYes += handle.weight() * opinion.getConfidence();
+            weightYes += handle.weight();
+        } else {
+            sumNo += handle.weight() * opinion.getConfidence();
+            weightNo += handle.weight();
+            if (handle.isVeto() && veto == null) {
+                veto = opinion;
+            }
+        }
+    }
+
+    /**
+     * @method isDecided
+     * @brief check if the outcome can't change whatever the opinions of the
+     * remaining modules are, given the highest confidence they can give
+     * @param remaining is the list of the modules not interrogated yet
+     * @return boolean
+     */
+    boolean isDecided(List<ModuleHandle> remaining) {
+        float remainingWeight = 0;
+        float remainingMax = 0;
+        boolean remainingVeto = false;
+
+        if (veto != null || remaining.isEmpty()) {
+            return true;
+        }
+
+        for (ModuleHandle handle : remaining) {
+            remainingWeight += handle.weight();
+            remainingMax = Math.max(remainingMax, handle.maxConfidence());
+            remainingVeto |= handle.isVeto();
+        }
+
+        if (wantsFlow()) {
+            // The lowest average of the yes is reached if all the remaining modules
+            // want the flow with confidence 0, the highest average of the no can't
+            // exceed the current one or the highest confidence of the remaining modules
+            float lowestYes = sumYes / (weightYes + remainingWeight);
+            float highestNo = Math.max(weightNo > 0 ? sumNo / weightNo : 0, remainingMax);
+            return !remainingVeto && lowestYes > highestNo;
+        }
+
+        if (weightNo == 0) {
+            // No opinion yet
+            return false;
+        }
+
+        float highestYes = Math.max(weightYes > 0 ? sumYes / weightYes : 0, remainingMax);
+        float lowestNo = sumNo / (weightNo + remainingWeight);
+        return highestYes <= lowestNo;
+    }
+
+    /**
+     * @method result
+     * @brief the opinion of the modules
+     * @return Module.Opinion, null if there are no opinions
+     */
+    Module.Opinion result() {
+        if (veto != null) {
+            return veto;
+        }
+        if (weightYes == 0 && weightNo == 0) {
+            return null;
+        }
+        // The averages are clamped, the rounding of the weights could exceed 100
+        if (wantsFlow()) {
+            return new Module.Opinion(true, Math.min(100, sumYes / weightYes));
+        } else {
+            return new Module.Opinion(false, Math.min(100, sumNo / weightNo));
+        }
+    }
+
+    private boolean wantsFlow() {
+        return weightYes > 0 && (weightNo == 0 || (sumYes / weightYes) > (sumNo / weightNo));
+    }
+}
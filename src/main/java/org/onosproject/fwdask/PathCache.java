@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+
+/**
+ * @class PathCache
+ * @brief Caches the paths between two devices computed on a topology.
+ * Every topology change creates a new Topology object: the cache is bound
+ * to the Topology it was filled with and starts empty as soon as the
+ * current topology is another one, or when it is invalidated.
+ * For every pair of devices the answers to "a path that does not go out
+ * of this port" are precomputed, so a lookup is a map read.
+ * The flows can also be spread over the paths with a weighted rendezvous
+ * hash of a flow key: a flow always takes the same path while the paths
+ * do not change, and the weights move the new flows away from the loaded
+ * links.
+ */
+final class PathCache {
+
+    /**
+     * @enum Selection
+     * @brief How a path is chosen among the paths between two devices
+     */
+    enum Selection {
+        // The first path that does not go back out of the ingress port
+        FIRST,
+        // The path chosen by the hash of the flow
+        HASH,
+        // The path chosen by the hash of the flow, weighted by the load of its links
+        LOAD
+    }
+
+    private static final double MIN_WEIGHT = 0.05;
+
+    private final TopologyService topologyService;
+    private volatile Generation generation = new Generation(null);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    PathCache(TopologyService topologyService) {
+        this.topologyService = topologyService;
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long invalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @method getPaths
+     * @brief paths from a device to another one on the current topology
+     * @param src is the DeviceId of the source device
+     * @param dst is the DeviceId of the destination device
+     * @return Set<Path>, empty if there are no paths
+     */
+    Set<Path> getPaths(DeviceId src, DeviceId dst) {
+        return lookup(src, dst).paths;
+    }
+
+    /**
+     * @method pathAvoiding
+     * @brief a path from a device to another one on the current topology
+     * that does not leave the source device from the given port
+     * @param src is the DeviceId of the source device
+     * @param dst is the DeviceId of the destination device
+     * @param notToPort is the PortNumber the path must not use
+     * @return Path, null if there is no such path
+     */
+    Path pathAvoiding(DeviceId src, DeviceId dst, PortNumber notToPort) {
+        return lookup(src, dst).avoiding(notToPort);
+    }
+
+    /**
+     * @method select
+     * @brief a path from a device to another one on the current topology,
+     * that does not leave the source device from the given port, chosen by
+     * the hash of the flow
+     * @param src is the DeviceId of the source device
+     * @param dst is the DeviceId of the destination device
+     * @param notToPort is the PortNumber the path must not use
+     * @param flowKey is the hash of the fields that identify the flow
+     * @param load is the PortLoadMonitor used to weight the paths, null to
+     * weight all the paths the same
+     * @return Path, null if there is no such path
+     */
+    Path select(DeviceId src, DeviceId dst, PortNumber notToPort, long flowKey, PortLoadMonitor load) {
+        Entry entry = lookup(src, dst);
+        if (entry.sorted.length < 2) {
+            return entry.avoiding(notToPort);
+        }
+
+        Path best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < entry.sorted.length; i++) {
+            Path path = entry.sorted[i];
+            if (path.src().port().equals(notToPort)) {
+                continue;
+            }
+
+            // Uniform in (0, 1): the score -weight / ln(u) picks every path
+            // with a probability proportional to its weight
+            double u = ((mix(flowKey ^ entry.keys[i]) >>> 11) + 0.5) / (1L << 53);
+            double score = weight(path, load) / -Math.log(u);
+            if (score > bestScore) {
+                bestScore = score;
+                best = path;
+            }
+        }
+        return best;
+    }
+
+    // Headroom of the most loaded link of the path, never 0 so that a
+    // saturated path is still chosen when it is the only one
+    private static double weight(Path path, PortLoadMonitor load) {
+        if (load == null) {
+            return 1;
+        }
+
+        double headroom = 1;
+        for (Link link : path.links()) {
+            headroom = Math.min(headroom, 1 - load.utilization(link.src()));
+        }
+        return Math.max(MIN_WEIGHT, headroom);
+    }
+
+    // Finalizer of MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @method invalidate
+     * @brief drop all the cached paths, they are computed again on the
+     * next lookups
+     * @return none
+     */
+    void invalidate() {
+        generation = new Generation(null);
+        invalidations.incrementAndGet();
+    }
+
+    private Entry lookup(DeviceId src, DeviceId dst) {
+        Generation current = current();
+
+        Map<DeviceId, Entry> fromSrc = current.entries.get(src);
+        if (fromSrc != null) {
+            Entry entry = fromSrc.get(dst);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+        } else {
+            fromSrc = current.entries.computeIfAbsent(src, k -> new ConcurrentHashMap<DeviceId, Entry>());
+        }
+
+        misses.incrementAndGet();
+        Entry entry = new Entry(topologyService.getPaths(current.topology, src, dst));
+        fromSrc.putIfAbsent(dst, entry);
+        return entry;
+    }
+
+    private Generation current() {
+        Topology topology = topologyService.currentTopology();
+        Generation current = generation;
+        if (current.topology == topology) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = generation;
+            if (current.topology != topology) {
+                current = new Generation(topology);
+                generation = current;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @class Generation
+     * @brief The paths computed on a topology, by source and destination
+     */
+    private static final class Generation {
+        final Topology topology;
+        final Map<DeviceId, Map<DeviceId, Entry>> entries = new ConcurrentHashMap<DeviceId, Map<DeviceId, Entry>>();
+
+        Generation(Topology topology) {
+            this.topology = topology;
+        }
+    }
+
+    /**
+     * @class Entry
+     * @brief The paths between two devices. The first path is the answer for
+     * every port but its own, for that port the answer is the first path
+     * that leaves from another port. For the hashing the paths are sorted by
+     * their links, so that they do not depend on the order of the set, and
+     * every path has a key derived from its links.
+     */
+    private static final class Entry {
+        final Set<Path> paths;
+        final Path first;
+        final Path alternative;
+        final Path[] sorted;
+        final long[] keys;
+
+        Entry(Set<Path> paths) {
+            this.paths = paths;
+
+            String[] names = new String[paths.size()];
+            sorted = new Path[paths.size()];
+            int n = 0;
+            for (Path path : paths) {
+                names[n] = path.links().toString();
+                sorted[n] = path;
+                n++;
+            }
+
+            // Sort the paths and their names together
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> names[i]));
+            Path[] unsorted = sorted.clone();
+            keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = unsorted[order[i]];
+                long key = 0;
+                String name = names[order[i]];
+                for (int c = 0; c < name.length(); c++) {
+                    key = 31 * key + name.charAt(c);
+                }
+                keys[i] = mix(key);
+            }
+
+            Path first = null;
+            Path alternative = null;
+            for (Path path : paths) {
+                if (first == null) {
+                    first = path;
+                } else if (!path.src().port().equals(first.src().port())) {
+                    alternative = path;
+                    break;
+                }
+            }
+            this.first = first;
+            this.alternative = alternative;
+        }
+
+        Path avoiding(PortNumber notToPort) {
+            if (first == null || !first.src().port().equals(notToPort)) {
+                return first;
+            }
+            return alternative;
+        }
+    }
+}
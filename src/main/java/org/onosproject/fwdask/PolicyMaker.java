@@ -26,16 +26,29 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.onlab.packet.Ethernet;
+
+import com.google.common.collect.ImmutableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.onlab.util.Tools.groupedThreads;
+
 
 /**
  * @class PolicyMaker
@@ -47,25 +60,66 @@ public class PolicyMaker {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private boolean modulesAreConfigured = false;
-
     private Map<String, UserForwardTypes> alreadyAsked;
     private Set<Short> unfilteredEthTypes;
 
 
     private static final String MODULES_FILE_NAME_PATH = "/modules/modules.txt";
 
-    private List<Module> listModules;
+    public static final int DEFAULT_MODULE_DEADLINE = 500;
+
+    // Immutable, sorted by cost and weight: it is replaced when a module is added or removed
+    private volatile List<ModuleHandle> listModules = ImmutableList.of();
+    private ModuleListener moduleListener;
     private UserConfigurator userConfigurator;
     private DBQuestioner dbQuestioner;
+    private final FlowStatistics statistics = new FlowStatistics();
+
+    // Modules are evaluated concurrently, an opinion that arrives more than
+    // moduleDeadline milliseconds after the evaluation of the flow started
+    // is dropped. The pool and its queue are bounded: a module that can't be
+    // interrogated because they are full is late.
+    private static final int MODULE_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int MODULE_QUEUE_SIZE = 256;
+    private static final long MODULE_THREAD_IDLE_SECONDS = 60;
+    private final ThreadPoolExecutor moduleExecutor =
+            new ThreadPoolExecutor(MODULE_THREADS, MODULE_THREADS, MODULE_THREAD_IDLE_SECONDS, TimeUnit.SECONDS,
+                                   new ArrayBlockingQueue<Runnable>(MODULE_QUEUE_SIZE),
+                                   groupedThreads("onos/fwdask", "module-%d", log));
+    private volatile int moduleDeadline = DEFAULT_MODULE_DEADLINE;
+    private final AtomicLong lateModules = new AtomicLong();
+    private final AtomicLong failedModules = new AtomicLong();
+    private final AtomicLong skippedModules = new AtomicLong();
 
+    /**
+     * @enum DemotionPolicy
+     * @brief What to do with a module that keeps exceeding the latency budget:
+     * nothing, interrogate it only in advisory mode or disable it
+     */
+    public enum DemotionPolicy {
+        NONE,
+        ADVISORY,
+        DISABLE
+    }
 
-    public PolicyMaker(UserConfigurator usrConfig) {
+    public static final int DEFAULT_MODULE_LATENCY_BUDGET = 0;
+
+    // A module is judged only after it has been interrogated MIN_BUDGET_CALLS times
+    private static final long MIN_BUDGET_CALLS = 100;
+    private static final long BUDGET_CHECK_INTERVAL_MS = 5000;
+
+    // 0 disables the latency budget
+    private volatile int moduleLatencyBudget = DEFAULT_MODULE_LATENCY_BUDGET;
+    private volatile DemotionPolicy demotionPolicy = DemotionPolicy.ADVISORY;
+    private final AtomicLong lastBudgetCheck = new AtomicLong();
 
-        this.listModules = new ArrayList<Module>();
+
+    public PolicyMaker(UserConfigurator usrConfig) {
 
         this.userConfigurator = usrConfig;
 
+        this.moduleExecutor.allowCoreThreadTimeOut(true);
+
         this.unfilteredEthTypes = new HashSet<Short>(1);
 
         this.dbQuestioner = new DBQuestioner();
@@ -75,70 +129,347 @@ public class PolicyMaker {
 
         alreadyAsked = new HashMap<String, UserForwardTypes>();
 
-        configureModules();
+        try {
+            moduleExecutor.execute(this::loadModules);
+        } catch (RejectedExecutionException e) {
+            log.error(e.getMessage());
+        }
 
     }
 
     /**
-     * @method configureModules
-     * @brief loads all the modules specified in the source file modules.txt
-     * @param none
+     * @method close
+     * @brief release the resources used by the PolicyMaker
      * @return none
      */
-    private void configureModules() {
+    public void close() {
+        this.moduleExecutor.shutdownNow();
+        this.listModules.forEach(this::closeModule);
+        this.dbQuestioner.close();
+    }
+
+    /**
+     * @method setModuleDeadline
+     * @brief set how long the modules can take to give their opinion
+     * @param deadline is the deadline in milliseconds
+     * @return none
+     */
+    public void setModuleDeadline(int deadline) {
+        if (deadline <= 0) {
+            throw new IllegalArgumentException("The module deadline must be a positive number of milliseconds");
+        }
+        this.moduleDeadline = deadline;
+    }
+
+    /**
+     * @method setModuleLatencyBudget
+     * @brief set the 99th percentile latency that a module can reach before
+     * being demoted, the modules already demoted are restored
+     * @param budget is the budget in milliseconds, 0 disables it
+     * @return none
+     */
+    public void setModuleLatencyBudget(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("The module latency budget can't be negative");
+        }
+        if (budget != this.moduleLatencyBudget) {
+            this.moduleLatencyBudget = budget;
+            restoreModules();
+        }
+    }
+
+    /**
+     * @method setModuleDemotionPolicy
+     * @brief set what to do with the modules that exceed the latency budget,
+     * the modules already demoted are restored
+     * @param policy is a DemotionPolicy
+     * @return none
+     */
+    public void setModuleDemotionPolicy(DemotionPolicy policy) {
+        if (policy != this.demotionPolicy) {
+            this.demotionPolicy = policy;
+            restoreModules();
+        }
+    }
+
+    private void restoreModules() {
+        for (ModuleHandle handle : this.listModules) {
+            handle.setState(ModuleHandle.State.ACTIVE);
+        }
+    }
+
+    /**
+     * @method getModuleStatistics
+     * @brief return the statistics of the loaded modules
+     * @return List of ModuleStatistics
+     */
+    public List<ModuleStatistics> getModuleStatistics() {
+        List<ModuleStatistics> result = new ArrayList<ModuleStatistics>();
+        for (ModuleHandle handle : this.listModules) {
+            result.add(handle.statistics());
+        }
+        return result;
+    }
+
+    /**
+     * @method getModules
+     * @brief return the loaded modules
+     * @return List of ModuleHandle
+     */
+    List<ModuleHandle> getModules() {
+        return this.listModules;
+    }
+
+    /**
+     * @method getLateModules
+     * @brief return how many opinions were dropped because they missed the deadline
+     * @return long
+     */
+    public long getLateModules() {
+        return lateModules.get();
+    }
+
+    /**
+     * @method getSkippedModules
+     * @brief return how many module calls were skipped because they could
+     * not change the outcome
+     * @return long
+     */
+    public long getSkippedModules() {
+        return skippedModules.get();
+    }
+
+    /**
+     * @method getFailedModules
+     * @brief return how many opinions were dropped because the module threw an exception
+     * @return long
+     */
+    public long getFailedModules() {
+        return failedModules.get();
+    }
+
+    /**
+     * @method getDBQuestioner
+     * @brief return the DBQuestioner shared by the modules
+     * @return DBQuestioner
+     */
+    public DBQuestioner getDBQuestioner() {
+        return this.dbQuestioner;
+    }
 
+    /**
+     * @method loadModules
+     * @brief loads in background all the modules specified in the source
+     * file modules.txt, the modules are instantiated concurrently and each
+     * one is added as soon as it is ready
+     * @param none
+     * @return none
+     */
+    private void loadModules() {
         InputStream in = this.getClass().getResourceAsStream(MODULES_FILE_NAME_PATH);
         String moduleName;
-        BufferedReader fileReader = null;
-        Module modTemp = null;
 
         if (in == null) {
             log.error(MODULES_FILE_NAME_PATH + " file non trovato");
             return;
         }
 
-        fileReader = new BufferedReader(new InputStreamReader(in));
+        try (BufferedReader fileReader = new BufferedReader(new InputStreamReader(in))) {
+            while ((moduleName = fileReader.readLine()) != null) {
+                moduleName = moduleName.trim();
+                // Empty lines and comments
+                if (moduleName.isEmpty() || moduleName.startsWith("#")) {
+                    continue;
+                }
+
+                String className = "org.onosproject.modules." + moduleName;
+                moduleExecutor.execute(() -> {
+                    Module module = instantiateModule(className);
+                    if (module != null) {
+                        addModule(module);
+                    }
+                });
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            log.error(e.getMessage());
+        }
+    }
 
+    private Module instantiateModule(String className) {
         try {
-            while ((moduleName = fileReader.readLine()) != null) {
+            return (Module) Class.forName(className).newInstance();
+        } catch (InstantiationException e) {
+            log.error(e.getMessage());
+        } catch (IllegalAccessException e) {
+            log.error(e.getMessage());
+        } catch (ClassNotFoundException e) {
+            log.error(e.getMessage());
+        } catch (ClassCastException e) {
+            log.error(className + " is not a module");
+        }
+        return null;
+    }
 
-                modTemp = null;
-                try {
-                    modTemp = (Module) Class.forName("org.onosproject.modules." + moduleName).newInstance();
-                } catch (InstantiationException e) {
-                    log.error(e.getMessage());
-                    continue;
-                } catch (IllegalAccessException e) {
-                    log.error(e.getMessage());
-                    continue;
-                } catch (ClassNotFoundException e) {
-                    log.error(e.getMessage());
-                    continue;
+    /**
+     * @method addModule
+     * @brief adds a module to the ones that are interrogated, replacing the
+     * module with the same name if there is one. The decisions already
+     * taken are kept.
+     * @param module is the Module to add
+     * @return none
+     */
+    public void addModule(Module module) {
+        ModuleHandle handle;
+        try {
+            handle = new ModuleHandle(module, moduleExecutor);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            return;
+        }
+
+        ModuleHandle replaced = null;
+        synchronized (this) {
+            List<ModuleHandle> modules = new ArrayList<ModuleHandle>(this.listModules.size() + 1);
+            for (ModuleHandle current : this.listModules) {
+                if (current.name().equals(handle.name())) {
+                    replaced = current;
+                } else {
+                    modules.add(current);
                 }
+            }
+            modules.add(handle);
+
+            // The cheapest modules are interrogated first, among the ones
+            // with the same cost the heaviest ones
+            modules.sort(Comparator.comparingInt(ModuleHandle::cost)
+                    .thenComparing(ModuleHandle::weight, Comparator.reverseOrder()));
+            this.listModules = ImmutableList.copyOf(modules);
 
-                if (modTemp != null) {
-                    listModules.add(modTemp);
+            if (moduleListener != null) {
+                if (replaced != null) {
+                    moduleListener.moduleRemoved(replaced);
                 }
+                moduleListener.moduleAdded(handle);
+            }
+        }
 
+        if (replaced != null) {
+            closeModule(replaced);
+        }
+        log.info("Module {} {}", handle.name(), replaced == null ? "added" : "replaced");
+    }
+
+    /**
+     * @method removeModule
+     * @brief stops interrogating a module. The decisions already taken are kept.
+     * @param module is the Module to remove
+     * @return none
+     */
+    public void removeModule(Module module) {
+        ModuleHandle removed = null;
+        synchronized (this) {
+            List<ModuleHandle> modules = new ArrayList<ModuleHandle>(this.listModules.size());
+            for (ModuleHandle current : this.listModules) {
+                if (current.module() == module) {
+                    removed = current;
+                } else {
+                    modules.add(current);
+                }
+            }
+            if (removed == null) {
+                return;
+            }
+            this.listModules = ImmutableList.copyOf(modules);
+
+            if (moduleListener != null) {
+                moduleListener.moduleRemoved(removed);
             }
-        } catch (IOException e) {
-            log.error(e.getMessage());
-            return;
         }
 
+        closeModule(removed);
+        log.info("Module {} removed", removed.name());
+    }
+
+    private void closeModule(ModuleHandle handle) {
         try {
-            fileReader.close();
-            in.close();
-        } catch (IOException e) {
-            log.error(e.getMessage());
+            handle.module().close();
+        } catch (RuntimeException e) {
+            log.warn("Module {} failed to close: {}", handle.name(), e.toString());
         }
+    }
 
-        if (!listModules.isEmpty()) {
-            modulesAreConfigured = true;
+    /**
+     * @method setModuleListener
+     * @brief set the listener notified when a module is added or removed,
+     * moduleAdded is called at once for the modules already loaded
+     * @param listener is a ModuleListener, null to remove it
+     * @return none
+     */
+    synchronized void setModuleListener(ModuleListener listener) {
+        this.moduleListener = listener;
+        if (listener != null) {
+            this.listModules.forEach(listener::moduleAdded);
         }
+    }
 
+    /**
+     * @interface ModuleListener
+     * @brief Listener of the modules added and removed at runtime
+     */
+    interface ModuleListener {
+        void moduleAdded(ModuleHandle handle);
+
+        void moduleRemoved(ModuleHandle handle);
     }
 
+    /**
+     * @method observeFlow
+     * @brief notifies the modules of a packet-in of a new flow
+     * @param pkt is a Flow object
+     * @return none
+     */
+    public void observeFlow(Flow pkt) {
+        for (ModuleHandle handle : this.listModules) {
+            if (handle.state() == ModuleHandle.State.DISABLED) {
+                continue;
+            }
+            try {
+                handle.module().flowObserved(pkt);
+            } catch (RuntimeException e) {
+                log.warn("Module {} failed to observe a flow: {}", handle.name(), e.toString());
+            }
+        }
+    }
+
+    /**
+     * @method notifyDecision
+     * @brief notifies the modules of the decision of the operator
+     * @param pkt is a Flow object
+     * @param accepted is true if the flow was accepted
+     * @return none
+     */
+    private void notifyDecision(Flow pkt, boolean accepted) {
+        for (ModuleHandle handle : this.listModules) {
+            try {
+                handle.module().decisionTaken(pkt, accepted);
+            } catch (RuntimeException e) {
+                log.warn("Module {} failed to record a decision: {}", handle.name(), e.toString());
+            }
+        }
+    }
+
+    /**
+     * @method isPairAccepted
+     * @brief tells whether the flows between the source and the destination
+     * of a flow were accepted at least minAccepted times and never denied
+     * @param pkt is a Flow object
+     * @param minAccepted is the number of accepted flows required
+     * @return boolean
+     */
+    public boolean isPairAccepted(Flow pkt, int minAccepted) {
+        FlowStatistics.DecisionCounters pair = statistics.pair(pkt);
+        return pair != null && pair.denied() == 0 && pair.accepted() >= minAccepted;
+    }
 
     /**
      * @method askUserToForward
@@ -151,21 +482,23 @@ public class PolicyMaker {
         UserForwardTypes retVal;
         UserForwardTypes userResponse;
         Module.Opinion modulesResponse = null;
-        List<Module.Opinion> opinions = new ArrayList<Module.Opinion>();
+        List<ModuleHandle> modules = this.listModules;
 
-        if (modulesAreConfigured) {
-            for (Module module : this.listModules) {
-                opinions.add(module.givesOpinion(pkt, this.dbQuestioner));
-            }
-
-            modulesResponse = calculateModulesResponse(opinions);
+        statistics.recordFlow(pkt);
 
+        if (!modules.isEmpty()) {
+            modulesResponse = evaluateModules(modules, new FlowContext(pkt, this.dbQuestioner, statistics));
         }
 
         userResponse = userConfigurator.askUserToForward(pkt, modulesResponse);
 
         retVal = userResponse;
 
+        if (retVal != UserForwardTypes.ERROR_FORWARDING) {
+            statistics.recordDecision(pkt, retVal == UserForwardTypes.OK_TO_FORWARD);
+            notifyDecision(pkt, retVal == UserForwardTypes.OK_TO_FORWARD);
+        }
+
         try {
             alreadyAsked.put(pkt.toHash(), retVal);
          } catch (NoSuchAlgorithmException e) {
@@ -183,33 +516,213 @@ public class PolicyMaker {
     }
 
     /**
-     * @method calculateModulesResponse
-     * @brief calculate the weighted average of the opinions of the modules
-     * @param opinion is list of opinions
-     * @return return a Module.Opinion object
+     * @method evaluateModules
+     * @brief interrogates the modules, from the cheapest to the most expensive.
+     * The modules with the same cost are interrogated concurrently, the
+     * opinions of the modules that fail or miss the deadline, which is the
+     * same for all the tiers, are dropped.
+     * The evaluation stops as soon as the remaining modules can't change
+     * the outcome or a veto module does not want the flow.
+     * @param modules is the list of the modules, sorted by cost
+     * @param context is the FlowContext of the flow
+     * @return return a Module.Opinion object, null if there are no opinions
      */
-    private Module.Opinion calculateModulesResponse(List<Module.Opinion> opinions) {
-        float averageYes = 0;
-        float averageNo = 0;
-        int numOfYes = 0;
-        int numOfNo = 0;
+    Module.Opinion evaluateModules(List<ModuleHandle> modules, FlowContext context) {
+        Flow pkt = context.getFlow();
+        OpinionTally tally = new OpinionTally();
+        List<ModuleHandle> pending = new ArrayList<ModuleHandle>();
+        // The deadline covers all the tiers of the flow
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(moduleDeadline);
+
+        checkLatencyBudget(modules);
+
+        // Reuse first the opinions given on flows that the modules can't distinguish
+        for (ModuleHandle handle : modules) {
+            if (handle.state() == ModuleHandle.State.DISABLED) {
+                continue;
+            }
+            if (handle.state() == ModuleHandle.State.ADVISORY) {
+                evaluateAdvisory(context, handle);
+                continue;
+            }
 
-        for (Module.Opinion opinion : opinions) {
-            if (opinion.wantsFlow()) {
-                averageYes += opinion.getConfidence();
-                numOfYes++;
-            } else {
-                averageNo += opinion.getConfidence();
-                numOfNo++;
+            Module.Opinion cached = handle.cachedOpinion(pkt);
+            if (cached == null) {
+                pending.add(handle);
+            } else if (cached != ModuleHandle.NO_OPINION) {
+                tally.add(handle, cached);
             }
         }
 
-        if (numOfYes > 0 && (numOfNo == 0 || (averageYes / numOfYes) > (averageNo / numOfNo))) {
-            return new Module.Opinion(true, averageYes / numOfYes);
-        } else {
-            return new Module.Opinion(false, averageNo / numOfNo);
+        // listModules is sorted by cost: evaluate one tier of equal cost at a time
+        int first = 0;
+        while (first < pending.size()) {
+            if (tally.isDecided(pending.subList(first, pending.size()))) {
+                skippedModules.addAndGet(pending.size() - first);
+                break;
+            }
+
+            // The tiers left when the deadline expires are not interrogated
+            if (System.nanoTime() >= deadline) {
+                lateModules.addAndGet(pending.size() - first);
+                break;
+            }
+
+            int last = first;
+            while (last < pending.size() && pending.get(last).cost() == pending.get(first).cost()) {
+                last++;
+            }
+
+            if (!evaluateTier(context, pending.subList(first, last), tally, deadline)) {
+                break;
+            }
+            first = last;
+        }
+
+        return tally.result();
+    }
+
+    /**
+     * @method evaluateTier
+     * @brief interrogates some modules concurrently and adds their opinions to the tally
+     * @param context is the FlowContext of the flow
+     * @param tier is the list of the modules to interrogate
+     * @param tally is the OpinionTally of the flow
+     * @param deadline is the System.nanoTime() by which the opinions of the flow must arrive
+     * @return return false if the evaluation was interrupted
+     */
+    private boolean evaluateTier(FlowContext context, List<ModuleHandle> tier, OpinionTally tally,
+                                 long deadline) {
+        Flow pkt = context.getFlow();
+        List<Future<Module.Opinion>> futures = new ArrayList<Future<Module.Opinion>>();
+
+        for (ModuleHandle handle : tier) {
+            try {
+                if (handle.batcher() != null) {
+                    futures.add(handle.batcher().submit(context));
+                } else {
+                    futures.add(moduleExecutor.submit(() -> handle.evaluate(context)));
+                }
+            } catch (RejectedExecutionException e) {
+                futures.add(null);
+            }
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Module.Opinion> future = futures.get(i);
+            ModuleHandle handle = tier.get(i);
+            if (future == null) {
+                moduleLate(handle);
+                continue;
+            }
+            try {
+                Module.Opinion opinion = future.get(Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+                handle.cacheOpinion(pkt, opinion);
+                if (opinion != null) {
+                    tally.add(handle, opinion);
+                }
+            } catch (TimeoutException e) {
+                // Interrupt the module, or free its place in the queue if it did not start
+                future.cancel(true);
+                if (future instanceof Runnable) {
+                    moduleExecutor.remove((Runnable) future);
+                }
+                moduleLate(handle);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    moduleLate(handle);
+                } else {
+                    failedModules.incrementAndGet();
+                    log.warn("Module {} failed: {}", handle.name(), e.getCause().toString());
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void moduleLate(ModuleHandle handle) {
+        handle.timedOut();
+        lateModules.incrementAndGet();
+        log.debug("Module {} missed the deadline", handle.name());
+    }
+
+    /**
+     * @method evaluateAdvisory
+     * @brief interrogates a demoted module in background, so that its latency
+     * keeps being measured. The opinion is ignored.
+     * @param context is the FlowContext of the flow
+     * @param handle is the ModuleHandle of the module
+     * @return none
+     */
+    private void evaluateAdvisory(FlowContext context, ModuleHandle handle) {
+        if (!handle.tryStartAdvisory()) {
+            return;
         }
 
+        try {
+            moduleExecutor.execute(() -> {
+                try {
+                    handle.evaluate(context);
+                } catch (RuntimeException e) {
+                    log.debug("Advisory module {} failed: {}", handle.name(), e.toString());
+                } finally {
+                    handle.finishAdvisory();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            handle.finishAdvisory();
+        }
+    }
+
+    /**
+     * @method checkLatencyBudget
+     * @brief demotes the modules whose 99th percentile latency exceeds the
+     * budget and restores the advisory modules that are back under it.
+     * The check runs at most once every BUDGET_CHECK_INTERVAL_MS.
+     * @param modules is the list of the modules
+     * @return none
+     */
+    private void checkLatencyBudget(List<ModuleHandle> modules) {
+        int budget = this.moduleLatencyBudget;
+        DemotionPolicy policy = this.demotionPolicy;
+        if (budget == 0 || policy == DemotionPolicy.NONE) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long last = lastBudgetCheck.get();
+        if (now - last < BUDGET_CHECK_INTERVAL_MS || !lastBudgetCheck.compareAndSet(last, now)) {
+            return;
+        }
+
+        double budgetNanos = TimeUnit.MILLISECONDS.toNanos(budget);
+        for (ModuleHandle handle : modules) {
+            if (handle.state() == ModuleHandle.State.DISABLED
+                    || handle.latency().getCount() < MIN_BUDGET_CALLS) {
+                continue;
+            }
+
+            boolean overBudget = handle.latency().getSnapshot().get99thPercentile() > budgetNanos;
+
+            if (overBudget && handle.state() == ModuleHandle.State.ACTIVE) {
+                if (policy == DemotionPolicy.DISABLE) {
+                    handle.setState(ModuleHandle.State.DISABLED);
+                } else {
+                    handle.setState(ModuleHandle.State.ADVISORY);
+                }
+                log.warn("Module {} exceeds the latency budget of {} ms, state {}",
+                         handle.name(), budget, handle.state());
+            } else if (!overBudget && handle.state() == ModuleHandle.State.ADVISORY) {
+                handle.setState(ModuleHandle.State.ACTIVE);
+                log.info("Module {} is back under the latency budget", handle.name());
+            }
+        }
     }
 
     /**
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Device;
+import org.onosproject.net.Port;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.PortStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @class PortLoadMonitor
+ * @brief Samples in background the port statistics of the devices and
+ * keeps the utilization of the transmit side of every port, the fraction
+ * of the port speed used since the previous statistics.
+ */
+final class PortLoadMonitor {
+
+    public static final int DEFAULT_INTERVAL = 5;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DeviceService deviceService;
+    private final ScheduledExecutorService executor;
+    private final Map<ConnectPoint, Double> utilization = new ConcurrentHashMap<ConnectPoint, Double>();
+
+    // Guarded by the monitor itself
+    private ScheduledFuture<?> sampler;
+
+    PortLoadMonitor(DeviceService deviceService, ScheduledExecutorService executor) {
+        this.deviceService = deviceService;
+        this.executor = executor;
+    }
+
+    /**
+     * @method setInterval
+     * @brief start sampling the statistics every interval seconds
+     * @param interval is the sampling interval in seconds, 0 stops sampling
+     * @return none
+     */
+    synchronized void setInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("The sampling interval can't be negative");
+        }
+
+        if (sampler != null) {
+            sampler.cancel(false);
+            sampler = null;
+        }
+        if (interval == 0) {
+            utilization.clear();
+            return;
+        }
+
+        try {
+            sampler = executor.scheduleWithFixedDelay(this::sample, 0, interval, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @method utilization
+     * @brief utilization of the transmit side of a port
+     * @param point is the ConnectPoint of the port
+     * @return double, between 0 and 1, 0 if the port was not sampled
+     */
+    double utilization(ConnectPoint point) {
+        Double value = utilization.get(point);
+        return value != null ? value : 0;
+    }
+
+    int size() {
+        return utilization.size();
+    }
+
+    private void sample() {
+        try {
+            for (Device device : deviceService.getAvailableDevices()) {
+                for (PortStatistics stats : deviceService.getPortDeltaStatistics(device.id())) {
+                    ConnectPoint point = new ConnectPoint(device.id(), stats.portNumber());
+                    Port port = deviceService.getPort(point);
+                    double seconds = stats.durationSec() + stats.durationNano() / 1e9;
+                    if (port == null || port.portSpeed() <= 0 || seconds <= 0) {
+                        utilization.remove(point);
+                        continue;
+                    }
+
+                    // The port speed is in Mbps
+                    double bitsPerSecond = stats.bytesSent() * 8 / seconds;
+                    utilization.put(point, Math.min(1, bitsPerSecond / (port.portSpeed() * 1e6)));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error(e.getMessage());
+        }
+    }
+}
@@ -15,8 +15,14 @@
  */
 package org.onosproject.fwdask;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
@@ -24,9 +30,15 @@ import org.apache.felix.scr.annotations.Modified;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.felix.scr.annotations.Service;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.ICMP;
 import org.onlab.packet.ICMP6;
+import org.onlab.packet.IPacket;
 import org.onlab.packet.IPv4;
 import org.onlab.packet.IPv6;
 import org.onlab.packet.Ip4Prefix;
@@ -36,31 +48,38 @@ import org.onlab.packet.TpPort;
 import org.onlab.packet.TCP;
 import org.onlab.packet.UDP;
 import org.onlab.packet.VlanId;
+import org.onlab.util.Tools;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.db.DBQuestioner;
 import org.onosproject.event.Event;
+import org.onosproject.modules.Module;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
-import org.onosproject.net.Host;
 import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
 import org.onosproject.net.Link;
 import org.onosproject.net.Path;
 import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
 import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
 import org.onosproject.net.flow.criteria.Criterion;
 import org.onosproject.net.flow.criteria.EthCriterion;
-import org.onosproject.net.flow.instructions.Instruction;
-import org.onosproject.net.flow.instructions.Instructions;
 import org.onosproject.net.flowobjective.DefaultForwardingObjective;
 import org.onosproject.net.flowobjective.FlowObjectiveService;
 import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
 import org.onosproject.net.link.LinkEvent;
 import org.onosproject.net.packet.InboundPacket;
@@ -78,34 +97,52 @@ import org.onosproject.ui.UiMessageHandlerFactory;
 import org.onosproject.ui.UiView;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.sql.Timestamp;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.onlab.util.Tools.groupedThreads;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
  * Sample reactive forwarding application.
  */
 @Component(immediate = true)
-public class ReactiveForwardingAsk {
+@Service
+public class ReactiveForwardingAsk implements ForwardingAskService {
 
     private static final int DEFAULT_TIMEOUT = 10;
     private static final int DEFAULT_PRIORITY = 10;
     private static final int DEFAULT_CONFPORT = 50000;
+    private static final int DEFAULT_FLOW_HISTORY_RETENTION = 30;
+    private static final int DEFAULT_REPAIR_WINDOW = 50;
+    // Seconds an aggregate rule can take to be installed before its narrow
+    // rules are no longer merged
+    private static final int PENDING_MERGE_TIMEOUT = 30;
 
     private static final String VIEW_ID = "fwdaskCustom";
     private static final String VIEW_TEXT = "Forwarding Ask";
 
+    private static final String METRICS_COMPONENT = "FwdAsk";
+
     private final Logger log = getLogger(getClass());
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
@@ -123,6 +160,9 @@ public class ReactiveForwardingAsk {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected FlowRuleService flowRuleService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected DeviceService deviceService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected FlowObjectiveService flowObjectiveService;
 
@@ -132,6 +172,19 @@ public class ReactiveForwardingAsk {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected ComponentConfigService cfgService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected MetricsService metricsService;
+
+    // Modules registered as OSGi services by other bundles
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            referenceInterface = Module.class,
+            bind = "bindModule", unbind = "unbindModule")
+    private final Set<Module> boundModules = ConcurrentHashMap.newKeySet();
+
+    private MetricsComponent metricsComponent;
+    private final Map<MetricsFeature, List<String>> registeredMetrics = new HashMap<>();
+
     private ReactivePacketProcessor processor = new ReactivePacketProcessor();
 
     private ApplicationId appId;
@@ -149,6 +202,24 @@ public class ReactiveForwardingAsk {
             + "default is 10 sec")
     private int flowTimeout = DEFAULT_TIMEOUT;
 
+    @Property(name = "ruleAggregation", intValue = 0,
+            label = "Configure after how many accepted flows, with none denied, the rules of a "
+            + "source and destination pair are replaced by a single rule; 0 disables it, default is 0")
+    private int ruleAggregation = 0;
+
+    @Property(name = "adaptiveTimeouts", boolValue = false,
+            label = "Enable learning the timeout of the flow rules of every flow class, "
+            + "starting from flowTimeout; default is false")
+    private boolean adaptiveTimeoutsEnabled = false;
+
+    @Property(name = "minFlowTimeout", intValue = AdaptiveTimeouts.DEFAULT_MIN_TIMEOUT,
+            label = "Configure the smallest learnt Flow Timeout; default is 5 sec")
+    private int minFlowTimeout = AdaptiveTimeouts.DEFAULT_MIN_TIMEOUT;
+
+    @Property(name = "maxFlowTimeout", intValue = AdaptiveTimeouts.DEFAULT_MAX_TIMEOUT,
+            label = "Configure the largest learnt Flow Timeout; default is 300 sec")
+    private int maxFlowTimeout = AdaptiveTimeouts.DEFAULT_MAX_TIMEOUT;
+
     @Property(name = "flowPriority", intValue = DEFAULT_PRIORITY,
             label = "Configure Flow Priority for installed flow rules; "
             + "default is 10")
@@ -205,6 +276,51 @@ public class ReactiveForwardingAsk {
             + "default is false")
     private boolean connTrackMode = false;
 
+    @Property(name = "moduleDeadline", intValue = PolicyMaker.DEFAULT_MODULE_DEADLINE,
+            label = "Configure how many milliseconds the modules can take to give their opinion; "
+            + "default is 500 ms")
+    private int moduleDeadline = PolicyMaker.DEFAULT_MODULE_DEADLINE;
+
+    @Property(name = "moduleLatencyBudget", intValue = PolicyMaker.DEFAULT_MODULE_LATENCY_BUDGET,
+            label = "Configure the 99th percentile latency in milliseconds above which a module is demoted; "
+            + "0 disables the budget, default is 0")
+    private int moduleLatencyBudget = PolicyMaker.DEFAULT_MODULE_LATENCY_BUDGET;
+
+    @Property(name = "moduleDemotionPolicy", value = "ADVISORY",
+            label = "Configure what happens to a module that exceeds the latency budget: "
+            + "NONE, ADVISORY (opinions ignored) or DISABLE; default is ADVISORY")
+    private PolicyMaker.DemotionPolicy moduleDemotionPolicy = PolicyMaker.DemotionPolicy.ADVISORY;
+
+    @Property(name = "objectiveBatchSize", intValue = ObjectiveBatcher.DEFAULT_BATCH_SIZE,
+            label = "Configure how many forwarding objectives of a device are submitted together; "
+            + "default is 64")
+    private int objectiveBatchSize = ObjectiveBatcher.DEFAULT_BATCH_SIZE;
+
+    @Property(name = "objectiveFlushWindow", intValue = ObjectiveBatcher.DEFAULT_FLUSH_WINDOW,
+            label = "Configure how many milliseconds a forwarding objective can wait for its batch; "
+            + "0 disables the batching, default is 5 ms")
+    private int objectiveFlushWindow = ObjectiveBatcher.DEFAULT_FLUSH_WINDOW;
+
+    @Property(name = "pathSelection", value = "HASH",
+            label = "Configure how a path is chosen among the shortest ones: FIRST, HASH (by the hash "
+            + "of the flow) or LOAD (by the hash of the flow, weighted by the load of the links); "
+            + "default is HASH")
+    private PathCache.Selection pathSelection = PathCache.Selection.HASH;
+
+    @Property(name = "portStatsInterval", intValue = PortLoadMonitor.DEFAULT_INTERVAL,
+            label = "Configure every how many seconds the port statistics are sampled "
+            + "for the LOAD path selection; default is 5")
+    private int portStatsInterval = PortLoadMonitor.DEFAULT_INTERVAL;
+
+    @Property(name = "repairWindow", intValue = DEFAULT_REPAIR_WINDOW,
+            label = "Configure how many milliseconds the link failures are collected before "
+            + "repairing the rules; default is 50 ms")
+    private int repairWindow = DEFAULT_REPAIR_WINDOW;
+
+    @Property(name = "flowHistoryRetention", intValue = DEFAULT_FLOW_HISTORY_RETENTION,
+            label = "Configure after how many days the flows are removed from the flow history; "
+            + "0 keeps them forever, default is 30")
+    private int flowHistoryRetention = DEFAULT_FLOW_HISTORY_RETENTION;
 
 
 
@@ -212,10 +328,39 @@ public class ReactiveForwardingAsk {
 
 
     private final TopologyListener topologyListener = new InternalTopologyListener();
+    private HostListener hostListener;
+    private final HostLocationCache hostLocations = new HostLocationCache();
+    private final AdaptiveTimeouts adaptiveTimeouts = new AdaptiveTimeouts(DEFAULT_TIMEOUT);
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+    private InstalledRuleIndex installedRules;
 
     private final UserConfigurator userConfigurator = new UserConfigurator();
     private final PolicyMaker policyMaker = new PolicyMaker(userConfigurator);
 
+    private final ScheduledExecutorService objectiveExecutor =
+            newSingleThreadScheduledExecutor(groupedThreads("onos/fwdask", "objectives-%d", log));
+    private ObjectiveBatcher objectiveBatcher;
+    private PathCache pathCache;
+
+    private final ScheduledExecutorService portStatsExecutor =
+            newSingleThreadScheduledExecutor(groupedThreads("onos/fwdask", "port-stats-%d", log));
+    private PortLoadMonitor portLoadMonitor;
+
+    // Egress points of the removed links, repaired together after repairWindow
+    private final ScheduledExecutorService repairExecutor =
+            newSingleThreadScheduledExecutor(groupedThreads("onos/fwdask", "repair-%d", log));
+    private final Set<ConnectPoint> pendingRepairs = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean repairScheduled = new AtomicBoolean();
+    private final Timer repairDuration = new Timer();
+    private final AtomicLong repairedLinks = new AtomicLong();
+    private final AtomicLong rulesRemoved = new AtomicLong();
+
+    private final AtomicLong aggregatedRules = new AtomicLong();
+    private final AtomicLong mergedRules = new AtomicLong();
+    // Aggregate rules not added to their device yet, by device and selector
+    private final Cache<Map.Entry<DeviceId, TrafficSelector>, PendingMerge> pendingMerges =
+            CacheBuilder.newBuilder().expireAfterWrite(PENDING_MERGE_TIMEOUT, TimeUnit.SECONDS).build();
+
 
     // List of application views
     private final List<UiView> uiViews = ImmutableList.of(
@@ -243,10 +388,21 @@ public class ReactiveForwardingAsk {
         cfgService.registerProperties(getClass());
         appId = coreService.registerApplication("org.onosproject.fwdask");
 
+        objectiveBatcher = new ObjectiveBatcher(flowObjectiveService, objectiveExecutor);
+        pathCache = new PathCache(topologyService);
+        portLoadMonitor = new PortLoadMonitor(deviceService, portStatsExecutor);
+        installedRules = new InstalledRuleIndex(appId.id());
+        flowRuleService.addListener(flowRuleListener);
+        installedRules.load(flowRuleService.getFlowEntriesById(appId));
+
         packetService.addProcessor(processor, PacketProcessor.ADVISOR_MAX + 2);
         topologyService.addListener(topologyListener);
+        hostListener = new HostMoveListener(hostLocations, installedRules, flowRuleService::removeFlowRules);
+        hostService.addListener(hostListener);
+        hostLocations.load(hostService.getHosts());
         readComponentConfiguration(context);
         requestIntercepts();
+        registerMetrics();
 
         log.info("Started", appId.id());
     }
@@ -258,19 +414,195 @@ public class ReactiveForwardingAsk {
 
         cfgService.unregisterProperties(getClass(), false);
         withdrawIntercepts();
+        objectiveBatcher.setFlushWindow(0);
+        objectiveExecutor.shutdownNow();
+        repairExecutor.shutdownNow();
+        portLoadMonitor.setInterval(0);
+        portStatsExecutor.shutdownNow();
+        pendingRepairs.clear();
         flowRuleService.removeFlowRulesById(appId);
+        flowRuleService.removeListener(flowRuleListener);
+        installedRules.clear();
         packetService.removeProcessor(processor);
         topologyService.removeListener(topologyListener);
+        hostService.removeListener(hostListener);
+        hostLocations.clear();
+        adaptiveTimeouts.clear();
+        pendingMerges.invalidateAll();
+        policyMaker.close();
+        unregisterMetrics();
         processor = null;
         log.info("Stopped");
     }
 
+    protected void bindModule(Module module) {
+        boundModules.add(module);
+        policyMaker.addModule(module);
+    }
+
+    protected void unbindModule(Module module) {
+        boundModules.remove(module);
+        policyMaker.removeModule(module);
+    }
+
     @Modified
     public void modified(ComponentContext context) {
         readComponentConfiguration(context);
         requestIntercepts();
     }
 
+    /**
+     * Registers the application metrics in the metrics service.
+     */
+    private void registerMetrics() {
+        metricsComponent = metricsService.registerComponent(METRICS_COMPONENT);
+
+        MetricsFeature db = metricsComponent.registerFeature("db");
+        DBQuestioner dbQuestioner = policyMaker.getDBQuestioner();
+        registerGauge(db, "cacheHitRate", () -> dbQuestioner.getCacheStats().hitRate());
+        registerGauge(db, "cacheHits", () -> dbQuestioner.getCacheStats().hitCount());
+        registerGauge(db, "cacheMisses", () -> dbQuestioner.getCacheStats().missCount());
+        registerGauge(db, "cacheSize", dbQuestioner::getCacheSize);
+        registerGauge(db, "circuitState", () -> dbQuestioner.getCircuitState().name());
+        registerGauge(db, "connectionFailures", dbQuestioner::getConnectionFailures);
+        registerGauge(db, "busyCalls", dbQuestioner::getBusyCalls);
+
+        MetricsFeature modules = metricsComponent.registerFeature("modules");
+        registerGauge(modules, "late", policyMaker::getLateModules);
+        registerGauge(modules, "failed", policyMaker::getFailedModules);
+        registerGauge(modules, "skipped", policyMaker::getSkippedModules);
+
+        MetricsFeature objectives = metricsComponent.registerFeature("objectives");
+        registerMetric(objectives, "batchSize", objectiveBatcher.batchSizes());
+        registerMetric(objectives, "flushLatency", objectiveBatcher.flushLatency());
+        registerGauge(objectives, "collapsed", objectiveBatcher::collapsed);
+
+        MetricsFeature paths = metricsComponent.registerFeature("paths");
+        registerGauge(paths, "cacheHits", pathCache::hits);
+        registerGauge(paths, "cacheMisses", pathCache::misses);
+        registerGauge(paths, "invalidations", pathCache::invalidations);
+        registerGauge(paths, "sampledPorts", portLoadMonitor::size);
+
+        MetricsFeature hosts = metricsComponent.registerFeature("hosts");
+        registerGauge(hosts, "cacheHits", hostLocations::hits);
+        registerGauge(hosts, "cacheMisses", hostLocations::misses);
+        registerGauge(hosts, "cacheSize", hostLocations::size);
+        registerGauge(hosts, "moves", hostLocations::moves);
+
+        MetricsFeature rules = metricsComponent.registerFeature("rules");
+        registerGauge(rules, "installed", installedRules::size);
+        registerMetric(rules, "repairDuration", repairDuration);
+        registerGauge(rules, "repairedLinks", repairedLinks::get);
+        registerGauge(rules, "removed", rulesRemoved::get);
+        registerGauge(rules, "aggregated", aggregatedRules::get);
+        registerGauge(rules, "merged", mergedRules::get);
+
+        MetricsFeature timeouts = metricsComponent.registerFeature("timeouts");
+        registerGauge(timeouts, "repacketIns", adaptiveTimeouts::repacketIns);
+        registerGauge(timeouts, "avoided", adaptiveTimeouts::avoided);
+
+        // The modules are loaded in background and can change at runtime
+        policyMaker.setModuleListener(new PolicyMaker.ModuleListener() {
+            @Override
+            public void moduleAdded(ModuleHandle handle) {
+                registerModuleMetrics(modules, handle);
+            }
+
+            @Override
+            public void moduleRemoved(ModuleHandle handle) {
+                unregisterModuleMetrics(modules, handle);
+            }
+        });
+    }
+
+    /**
+     * Registers the metrics of a module.
+     *
+     * @param feature
+     *            the feature of the metrics
+     * @param handle
+     *            the module
+     */
+    private void registerModuleMetrics(MetricsFeature feature, ModuleHandle handle) {
+        registerGauge(feature, handle.name() + ".opinionCacheHitRate",
+                () -> handle.opinionCacheStats().hitRate());
+        registerMetric(feature, handle.name() + ".latency", handle.latency());
+        registerGauge(feature, handle.name() + ".state", () -> handle.state().name());
+        registerGauge(feature, handle.name() + ".errors", () -> handle.statistics().errors());
+        registerGauge(feature, handle.name() + ".timeouts", () -> handle.statistics().timeouts());
+    }
+
+    /**
+     * Removes the metrics of a module.
+     *
+     * @param feature
+     *            the feature of the metrics
+     * @param handle
+     *            the module
+     */
+    private synchronized void unregisterModuleMetrics(MetricsFeature feature, ModuleHandle handle) {
+        List<String> names = registeredMetrics.get(feature);
+        if (names == null) {
+            return;
+        }
+        names.removeIf(name -> {
+            if (name.startsWith(handle.name() + ".")) {
+                metricsService.removeMetric(metricsComponent, feature, name);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Registers a gauge, it will be removed by unregisterMetrics.
+     *
+     * @param feature
+     *            the feature of the metric
+     * @param name
+     *            the name of the metric
+     * @param gauge
+     *            the gauge
+     */
+    private void registerGauge(MetricsFeature feature, String name, Gauge<?> gauge) {
+        registerMetric(feature, name, gauge);
+    }
+
+    /**
+     * Registers a metric, it will be removed by unregisterMetrics.
+     *
+     * @param feature
+     *            the feature of the metric
+     * @param name
+     *            the name of the metric
+     * @param metric
+     *            the metric
+     */
+    private synchronized <T extends Metric> void registerMetric(MetricsFeature feature, String name, T metric) {
+        metricsService.registerMetric(metricsComponent, feature, name, metric);
+        registeredMetrics.computeIfAbsent(feature, f -> new ArrayList<>()).add(name);
+    }
+
+    @Override
+    public List<ModuleStatistics> getModuleStatistics() {
+        return policyMaker.getModuleStatistics();
+    }
+
+    @Override
+    public List<TimeoutStatistics> getTimeoutStatistics() {
+        return adaptiveTimeouts.statistics();
+    }
+
+    /**
+     * Removes the application metrics from the metrics service.
+     */
+    private synchronized void unregisterMetrics() {
+        policyMaker.setModuleListener(null);
+        registeredMetrics.forEach((feature, names) ->
+                names.forEach(name -> metricsService.removeMetric(metricsComponent, feature, name)));
+        registeredMetrics.clear();
+    }
+
     /**
      * Request packet in via packet service.
      */
@@ -365,6 +697,10 @@ public class ReactiveForwardingAsk {
             matchIcmpFields = matchIcmpFieldsEnabled;
             log.info("Configured. Matching ICMP (v4 and v6) fields is {}", matchIcmpFields ? "enabled" : "disabled");
         }
+        boolean previousAdaptiveTimeouts = adaptiveTimeoutsEnabled;
+        int previousFlowTimeout = flowTimeout;
+        int previousMinFlowTimeout = minFlowTimeout;
+        int previousMaxFlowTimeout = maxFlowTimeout;
         Integer flowTimeoutConfigured = getIntegerProperty(properties, "flowTimeout");
         if (flowTimeoutConfigured == null) {
             log.info("Flow Timeout is not configured, default value is {}", flowTimeout);
@@ -372,6 +708,41 @@ public class ReactiveForwardingAsk {
             flowTimeout = flowTimeoutConfigured;
             log.info("Configured. Flow Timeout is configured to {}", flowTimeout, " seconds");
         }
+        Integer ruleAggregationConfigured = getIntegerProperty(properties, "ruleAggregation");
+        if (ruleAggregationConfigured == null || ruleAggregationConfigured < 0) {
+            log.info("Rule aggregation is not configured, default value is {}", ruleAggregation);
+        } else {
+            ruleAggregation = ruleAggregationConfigured;
+            log.info("Configured. Rule aggregation is configured to {} accepted flows", ruleAggregation);
+        }
+        boolean adaptiveTimeoutsConfigured = isPropertyEnabled(properties, "adaptiveTimeouts");
+        if (adaptiveTimeoutsEnabled != adaptiveTimeoutsConfigured) {
+            adaptiveTimeoutsEnabled = adaptiveTimeoutsConfigured;
+            log.info("Configured. Adaptive timeouts are {}", adaptiveTimeoutsEnabled ? "enabled" : "disabled");
+        }
+        Integer minFlowTimeoutConfigured = getIntegerProperty(properties, "minFlowTimeout");
+        if (minFlowTimeoutConfigured == null || minFlowTimeoutConfigured <= 0) {
+            log.info("Min Flow Timeout is not configured, default value is {}", minFlowTimeout);
+        } else {
+            minFlowTimeout = minFlowTimeoutConfigured;
+            log.info("Configured. Min Flow Timeout is configured to {} seconds", minFlowTimeout);
+        }
+        Integer maxFlowTimeoutConfigured = getIntegerProperty(properties, "maxFlowTimeout");
+        if (maxFlowTimeoutConfigured == null || maxFlowTimeoutConfigured < minFlowTimeout) {
+            log.info("Max Flow Timeout is not configured, default value is {}", maxFlowTimeout);
+        } else {
+            maxFlowTimeout = maxFlowTimeoutConfigured;
+            log.info("Configured. Max Flow Timeout is configured to {} seconds", maxFlowTimeout);
+        }
+        // Reconfiguring forgets the learnt timeouts, do it only on changes
+        if (adaptiveTimeoutsEnabled != previousAdaptiveTimeouts || flowTimeout != previousFlowTimeout
+                || minFlowTimeout != previousMinFlowTimeout || maxFlowTimeout != previousMaxFlowTimeout) {
+            try {
+                adaptiveTimeouts.configure(adaptiveTimeoutsEnabled, flowTimeout, minFlowTimeout, maxFlowTimeout);
+            } catch (IllegalArgumentException e) {
+                log.error(e.getMessage());
+            }
+        }
         Integer flowPriorityConfigured = getIntegerProperty(properties, "flowPriority");
         if (flowPriorityConfigured == null) {
             log.info("Flow Priority is not configured, default value is {}", flowPriority);
@@ -379,6 +750,93 @@ public class ReactiveForwardingAsk {
             flowPriority = flowPriorityConfigured;
             log.info("Configured. Flow Priority is configured to {}", flowPriority);
         }
+        Integer moduleDeadlineConfigured = getIntegerProperty(properties, "moduleDeadline");
+        if (moduleDeadlineConfigured == null || moduleDeadlineConfigured <= 0) {
+            log.info("Module deadline is not configured, default value is {}", moduleDeadline);
+        } else {
+            moduleDeadline = moduleDeadlineConfigured;
+            log.info("Configured. Module deadline is configured to {} ms", moduleDeadline);
+        }
+        policyMaker.setModuleDeadline(moduleDeadline);
+
+        Integer moduleLatencyBudgetConfigured = getIntegerProperty(properties, "moduleLatencyBudget");
+        if (moduleLatencyBudgetConfigured == null || moduleLatencyBudgetConfigured < 0) {
+            log.info("Module latency budget is not configured, default value is {}", moduleLatencyBudget);
+        } else {
+            moduleLatencyBudget = moduleLatencyBudgetConfigured;
+            log.info("Configured. Module latency budget is configured to {} ms", moduleLatencyBudget);
+        }
+        policyMaker.setModuleLatencyBudget(moduleLatencyBudget);
+
+        String moduleDemotionPolicyConfigured = Tools.get(properties, "moduleDemotionPolicy");
+        if (isNullOrEmpty(moduleDemotionPolicyConfigured)) {
+            log.info("Module demotion policy is not configured, default value is {}", moduleDemotionPolicy);
+        } else {
+            try {
+                moduleDemotionPolicy = PolicyMaker.DemotionPolicy.valueOf(
+                        moduleDemotionPolicyConfigured.trim().toUpperCase());
+                log.info("Configured. Module demotion policy is configured to {}", moduleDemotionPolicy);
+            } catch (IllegalArgumentException e) {
+                log.error("Unknown module demotion policy {}", moduleDemotionPolicyConfigured);
+            }
+        }
+        policyMaker.setModuleDemotionPolicy(moduleDemotionPolicy);
+
+        Integer objectiveBatchSizeConfigured = getIntegerProperty(properties, "objectiveBatchSize");
+        if (objectiveBatchSizeConfigured == null || objectiveBatchSizeConfigured <= 0) {
+            log.info("Objective batch size is not configured, default value is {}", objectiveBatchSize);
+        } else {
+            objectiveBatchSize = objectiveBatchSizeConfigured;
+            log.info("Configured. Objective batch size is configured to {}", objectiveBatchSize);
+        }
+        objectiveBatcher.setBatchSize(objectiveBatchSize);
+
+        Integer objectiveFlushWindowConfigured = getIntegerProperty(properties, "objectiveFlushWindow");
+        if (objectiveFlushWindowConfigured == null || objectiveFlushWindowConfigured < 0) {
+            log.info("Objective flush window is not configured, default value is {}", objectiveFlushWindow);
+        } else {
+            objectiveFlushWindow = objectiveFlushWindowConfigured;
+            log.info("Configured. Objective flush window is configured to {} ms", objectiveFlushWindow);
+        }
+        objectiveBatcher.setFlushWindow(objectiveFlushWindow);
+
+        String pathSelectionConfigured = Tools.get(properties, "pathSelection");
+        if (isNullOrEmpty(pathSelectionConfigured)) {
+            log.info("Path selection is not configured, default value is {}", pathSelection);
+        } else {
+            try {
+                pathSelection = PathCache.Selection.valueOf(pathSelectionConfigured.trim().toUpperCase());
+                log.info("Configured. Path selection is configured to {}", pathSelection);
+            } catch (IllegalArgumentException e) {
+                log.error("Unknown path selection {}", pathSelectionConfigured);
+            }
+        }
+
+        Integer portStatsIntervalConfigured = getIntegerProperty(properties, "portStatsInterval");
+        if (portStatsIntervalConfigured == null || portStatsIntervalConfigured <= 0) {
+            log.info("Port statistics interval is not configured, default value is {}", portStatsInterval);
+        } else {
+            portStatsInterval = portStatsIntervalConfigured;
+            log.info("Configured. Port statistics interval is configured to {} s", portStatsInterval);
+        }
+        portLoadMonitor.setInterval(pathSelection == PathCache.Selection.LOAD ? portStatsInterval : 0);
+
+        Integer repairWindowConfigured = getIntegerProperty(properties, "repairWindow");
+        if (repairWindowConfigured == null || repairWindowConfigured < 0) {
+            log.info("Repair window is not configured, default value is {}", repairWindow);
+        } else {
+            repairWindow = repairWindowConfigured;
+            log.info("Configured. Repair window is configured to {} ms", repairWindow);
+        }
+
+        Integer flowHistoryRetentionConfigured = getIntegerProperty(properties, "flowHistoryRetention");
+        if (flowHistoryRetentionConfigured == null || flowHistoryRetentionConfigured < 0) {
+            log.info("Flow history retention is not configured, default value is {}", flowHistoryRetention);
+        } else {
+            flowHistoryRetention = flowHistoryRetentionConfigured;
+            log.info("Configured. Flow history retention is configured to {} days", flowHistoryRetention);
+        }
+        policyMaker.getDBQuestioner().setRetentionDays(flowHistoryRetention);
 
         boolean ignoreIpv4McastPacketsEnabled = isPropertyEnabled(properties, "ignoreIpv4McastPackets");
         if (ignoreIpv4McastPackets != ignoreIpv4McastPacketsEnabled) {
@@ -500,13 +958,16 @@ public class ReactiveForwardingAsk {
             }
 
             // Check if the packet should not be filtered
+            boolean aggregate = false;
             if (!policyMaker.notFiltered(currentFlow)) {
                 UserForwardTypes forwardResponse;
 
                 // Check if we have a pre-loaded response for the packet.
                 forwardResponse = policyMaker.hashAlreadyAsked(currentFlow);
                 if (forwardResponse == UserForwardTypes.ERROR_FORWARDING) {
-                    // Ask to the user what to do.
+                    // A new flow: let the modules count it, then ask to the
+                    // user what to do.
+                    policyMaker.observeFlow(currentFlow);
                     forwardResponse = policyMaker.askToForward(currentFlow);
                 }
 
@@ -514,10 +975,15 @@ public class ReactiveForwardingAsk {
                     // Nobody will handle the packet so it will be dropped.
                     return;
                 }
+
+                // A pair whose IP flows are always accepted gets a single rule
+                aggregate = ruleAggregation > 0 && !matchDstMacOnly
+                        && (ethPkt.getEtherType() == Ethernet.TYPE_IPV4 || ethPkt.getEtherType() == Ethernet.TYPE_IPV6)
+                        && policyMaker.isPairAccepted(currentFlow, ruleAggregation);
             }
 
             // Do we know who this is for? If not, flood and bail.
-            Host dst = hostService.getHost(id);
+            HostLocation dst = hostLocations.location(id);
             if (dst == null) {
                 flood(context);
                 return;
@@ -525,18 +991,18 @@ public class ReactiveForwardingAsk {
 
             // Are we on an edge switch that our destination is on? If so,
             // simply forward out to the destination and bail.
-            if (pkt.receivedFrom().deviceId().equals(dst.location().deviceId())) {
-                if (!context.inPacket().receivedFrom().port().equals(dst.location().port())) {
-                    installRule(context, dst.location().port());
+            if (pkt.receivedFrom().deviceId().equals(dst.deviceId())) {
+                if (!context.inPacket().receivedFrom().port().equals(dst.port())) {
+                    installRule(context, dst.port(), aggregate);
                 }
                 return;
             }
 
             // Otherwise, get a set of paths that lead from here to the
             // destination edge switch.
-            Set<Path> paths = topologyService.getPaths(topologyService.currentTopology(), pkt.receivedFrom().deviceId(),
-                    dst.location().deviceId());
-            if (paths.isEmpty()) {
+            DeviceId srcId = pkt.receivedFrom().deviceId();
+            DeviceId dstId = dst.deviceId();
+            if (pathCache.getPaths(srcId, dstId).isEmpty()) {
                 // If there are no paths, flood and bail.
                 flood(context);
                 return;
@@ -544,7 +1010,7 @@ public class ReactiveForwardingAsk {
 
             // Otherwise, pick a path that does not lead back to where we
             // came from; if no such path, flood and bail.
-            Path path = pickForwardPath(paths, pkt.receivedFrom().port());
+            Path path = selectPath(srcId, dstId, pkt.receivedFrom().port(), ethPkt);
             if (path == null) {
                 log.warn("Doh... don't know where to go... {} -> {} received on {}", ethPkt.getSourceMAC(),
                         ethPkt.getDestinationMAC(), pkt.receivedFrom());
@@ -553,7 +1019,7 @@ public class ReactiveForwardingAsk {
             }
 
             // Otherwise forward and be done with it.
-            installRule(context, path.src().port());
+            installRule(context, path.src().port(), aggregate);
         }
 
     }
@@ -657,15 +1123,49 @@ public class ReactiveForwardingAsk {
         return eth.getEtherType() == Ethernet.TYPE_IPV6 && eth.isMulticast();
     }
 
-    // Selects a path from the given set that does not lead back to the
-    // specified port.
-    private Path pickForwardPath(Set<Path> paths, PortNumber notToPort) {
-        for (Path path : paths) {
-            if (!path.src().port().equals(notToPort)) {
-                return path;
-            }
+    // Selects a path that does not lead back to the specified port, as
+    // configured by pathSelection
+    private Path selectPath(DeviceId srcId, DeviceId dstId, PortNumber notToPort, Ethernet eth) {
+        switch (pathSelection) {
+            case HASH:
+                return pathCache.select(srcId, dstId, notToPort, flowKey(eth), null);
+            case LOAD:
+                return pathCache.select(srcId, dstId, notToPort, flowKey(eth), portLoadMonitor);
+            default:
+                return pathCache.pathAvoiding(srcId, dstId, notToPort);
+        }
+    }
+
+    // Hashes the fields the installed rule matches, so that all the packets
+    // of a rule take the same path
+    private long flowKey(Ethernet eth) {
+        long key = eth.getDestinationMAC().toLong();
+        if (matchDstMacOnly) {
+            return key;
+        }
+        key = 31 * key + eth.getSourceMAC().toLong();
+
+        IPacket transport = null;
+        if (matchIpv4Address && eth.getEtherType() == Ethernet.TYPE_IPV4) {
+            IPv4 ipv4Packet = (IPv4) eth.getPayload();
+            key = 31 * key + ipv4Packet.getSourceAddress();
+            key = 31 * key + ipv4Packet.getDestinationAddress();
+            transport = ipv4Packet.getPayload();
+        } else if (matchIpv6Address && eth.getEtherType() == Ethernet.TYPE_IPV6) {
+            IPv6 ipv6Packet = (IPv6) eth.getPayload();
+            key = 31 * key + Arrays.hashCode(ipv6Packet.getSourceAddress());
+            key = 31 * key + Arrays.hashCode(ipv6Packet.getDestinationAddress());
+            transport = ipv6Packet.getPayload();
         }
-        return null;
+
+        if (matchTcpUdpPorts && transport instanceof TCP) {
+            key = 31 * key + ((TCP) transport).getSourcePort();
+            key = 31 * key + ((TCP) transport).getDestinationPort();
+        } else if (matchTcpUdpPorts && transport instanceof UDP) {
+            key = 31 * key + ((UDP) transport).getSourcePort();
+            key = 31 * key + ((UDP) transport).getDestinationPort();
+        }
+        return key;
     }
 
     // Floods the specified packet if permissible.
@@ -683,8 +1183,9 @@ public class ReactiveForwardingAsk {
         context.send();
     }
 
-    // Install a rule forwarding the packet to the specified port.
-    private void installRule(PacketContext context, PortNumber portNumber) {
+    // Install a rule forwarding the packet to the specified port; an
+    // aggregate rule matches all the flows of the source and destination pair.
+    private void installRule(PacketContext context, PortNumber portNumber, boolean aggregate) {
         //
         // We don't support (yet) buffer IDs in the Flow Service so
         // packet out first.
@@ -699,12 +1200,48 @@ public class ReactiveForwardingAsk {
         }
 
         //
+        // If aggregate
+        // Create flows matching the configured fields of the pair, without
+        // the in port and the transport fields, above the priority of the
+        // flows they replace
         // If matchDstMacOnly
         // Create flows matching dstMac only
         // Else
         // Create flows with default matching and include configured fields
         //
-        if (matchDstMacOnly) {
+        int priority = flowPriority;
+        if (aggregate) {
+            // The ether type is always matched: the pair was decided for
+            // this protocol only
+            selectorBuilder.matchEthSrc(inPkt.getSourceMAC()).matchEthDst(inPkt.getDestinationMAC())
+                    .matchEthType(inPkt.getEtherType());
+
+            if (matchVlanId && inPkt.getVlanID() != Ethernet.VLAN_UNTAGGED) {
+                selectorBuilder.matchVlanId(VlanId.vlanId(inPkt.getVlanID()));
+            }
+
+            if (matchIpv4Address && inPkt.getEtherType() == Ethernet.TYPE_IPV4) {
+                IPv4 ipv4Packet = (IPv4) inPkt.getPayload();
+                selectorBuilder
+                        .matchIPSrc(Ip4Prefix.valueOf(ipv4Packet.getSourceAddress(), Ip4Prefix.MAX_MASK_LENGTH))
+                        .matchIPDst(Ip4Prefix.valueOf(ipv4Packet.getDestinationAddress(), Ip4Prefix.MAX_MASK_LENGTH));
+                if (matchIpv4Dscp) {
+                    selectorBuilder.matchIPDscp(ipv4Packet.getDscp()).matchIPEcn(ipv4Packet.getEcn());
+                }
+            }
+
+            if (matchIpv6Address && inPkt.getEtherType() == Ethernet.TYPE_IPV6) {
+                IPv6 ipv6Packet = (IPv6) inPkt.getPayload();
+                selectorBuilder
+                        .matchIPv6Src(Ip6Prefix.valueOf(ipv6Packet.getSourceAddress(), Ip6Prefix.MAX_MASK_LENGTH))
+                        .matchIPv6Dst(Ip6Prefix.valueOf(ipv6Packet.getDestinationAddress(),
+                                                        Ip6Prefix.MAX_MASK_LENGTH));
+                if (matchIpv6FlowLabel) {
+                    selectorBuilder.matchIPv6FlowLabel(ipv6Packet.getFlowLabel());
+                }
+            }
+            priority = flowPriority + 1;
+        } else if (matchDstMacOnly) {
             selectorBuilder.matchEthDst(inPkt.getDestinationMAC());
         } else {
             selectorBuilder.matchInPort(context.inPacket().receivedFrom().port()).matchEthSrc(inPkt.getSourceMAC())
@@ -790,36 +1327,101 @@ public class ReactiveForwardingAsk {
             }
         }
         TrafficTreatment treatment = DefaultTrafficTreatment.builder().setOutput(portNumber).build();
+        TrafficSelector selector = selectorBuilder.build();
+        DeviceId deviceId = context.inPacket().receivedFrom().deviceId();
 
         ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
-                .withSelector(selectorBuilder.build()).withTreatment(treatment).withPriority(flowPriority)
-                .withFlag(ForwardingObjective.Flag.VERSATILE).fromApp(appId).makeTemporary(flowTimeout).add();
+                .withSelector(selector).withTreatment(treatment).withPriority(priority)
+                .withFlag(ForwardingObjective.Flag.VERSATILE).fromApp(appId)
+                .makeTemporary(adaptiveTimeouts.installed(deviceId, selector)).add();
 
-        flowObjectiveService.forward(context.inPacket().receivedFrom().deviceId(), forwardingObjective);
+        boolean queued = objectiveBatcher.submit(deviceId, forwardingObjective);
+        if (aggregate) {
+            aggregateRules(deviceId, inPkt.getSourceMAC(), inPkt.getDestinationMAC(), selector, priority, queued);
+        }
 
         //
         // If packetOutOfppTable
         // Send packet back to the OpenFlow pipeline to match installed flow
         // Else
         // Send packet direction on the appropriate port
+        // A batched flow is not installed yet, so it can't be matched
         //
-        if (packetOutOfppTable) {
+        if (packetOutOfppTable && !objectiveBatcher.isBatching()) {
             packetOut(context, PortNumber.TABLE);
         } else {
             packetOut(context, portNumber);
         }
     }
 
+    // Merges the rules of the pair of an aggregate rule once the aggregate
+    // rule is added to the device: until then, while it waits for its batch
+    // or for the device, the narrow rules still forward the flows; queued is
+    // false when the aggregate rule was already waiting for its batch
+    private void aggregateRules(DeviceId deviceId, MacAddress src, MacAddress dst, TrafficSelector aggregate,
+                                int priority, boolean queued) {
+        boolean requested = false;
+        boolean added = false;
+        for (FlowRule r : installedRules.forPair(src, dst, deviceId)) {
+            if (r.priority() == priority && r.selector().equals(aggregate)) {
+                requested = true;
+                added = r instanceof FlowEntry && ((FlowEntry) r).state() == FlowEntry.FlowEntryState.ADDED;
+            }
+        }
+
+        if (queued && !requested) {
+            aggregatedRules.incrementAndGet();
+        }
+
+        if (added) {
+            mergeRules(deviceId, src, dst, aggregate, priority);
+        } else {
+            pendingMerges.put(Maps.immutableEntry(deviceId, aggregate), new PendingMerge(src, dst, priority));
+        }
+    }
+
+    // Removes the rules of a device that only match flows of the pair of an
+    // aggregate rule
+    private void mergeRules(DeviceId deviceId, MacAddress src, MacAddress dst, TrafficSelector aggregate,
+                            int priority) {
+        List<FlowRule> narrow = new ArrayList<>();
+        for (FlowRule r : installedRules.forPair(src, dst, deviceId)) {
+            if (r.priority() < priority && isConsistent(r.selector(), aggregate)) {
+                narrow.add(r);
+            }
+        }
+
+        if (!narrow.isEmpty()) {
+            log.trace("Merging " + narrow.size() + " flow rules of " + src + " -> " + dst + " on " + deviceId);
+            flowRuleService.removeFlowRules(narrow.toArray(new FlowRule[narrow.size()]));
+            mergedRules.addAndGet(narrow.size());
+        }
+    }
+
+    // Tells whether a rule of the pair of an aggregate rule does not match
+    // other flows: every field that both match has the same value; the in
+    // port and the transport fields are only matched by the narrow rule
+    private static boolean isConsistent(TrafficSelector narrow, TrafficSelector aggregate) {
+        for (Criterion cr : narrow.criteria()) {
+            Criterion wide = aggregate.getCriterion(cr.type());
+            if (wide != null && !wide.equals(cr)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private class InternalTopologyListener implements TopologyListener {
         @Override
         public void event(TopologyEvent event) {
+            pathCache.invalidate();
             List<Event> reasons = event.reasons();
             if (reasons != null) {
                 reasons.forEach(re -> {
                     if (re instanceof LinkEvent) {
                         LinkEvent le = (LinkEvent) re;
                         if (le.type() == LinkEvent.Type.LINK_REMOVED) {
-                            fixBlackhole(le.subject().src());
+                            scheduleRepair(le.subject().src());
                         }
                     }
                 });
@@ -827,36 +1429,107 @@ public class ReactiveForwardingAsk {
         }
     }
 
-    private void fixBlackhole(ConnectPoint egress) {
-        Set<FlowEntry> rules = getFlowRulesFrom(egress);
-        Set<SrcDstPair> pairs = findSrcDstPairs(rules);
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            installedRules.update(event);
+            if (event.subject().appId() != appId.id()) {
+                return;
+            }
+            if (event.type() == FlowRuleEvent.Type.RULE_ADDED) {
+                FlowRule rule = event.subject();
+                PendingMerge merge = pendingMerges.asMap().remove(
+                        Maps.immutableEntry(rule.deviceId(), rule.selector()));
+                if (merge != null && merge.priority == rule.priority()) {
+                    mergeRules(rule.deviceId(), merge.src, merge.dst, rule.selector(), merge.priority);
+                }
+            } else if (event.type() == FlowRuleEvent.Type.RULE_REMOVE_REQUESTED) {
+                adaptiveTimeouts.removeRequested(event.subject());
+            } else if (event.type() == FlowRuleEvent.Type.RULE_REMOVED && event.subject() instanceof FlowEntry) {
+                adaptiveTimeouts.removed((FlowEntry) event.subject());
+            }
+        }
+    }
+
+    // Queues the repair of a removed link; the links removed within
+    // repairWindow milliseconds are repaired together
+    private void scheduleRepair(ConnectPoint egress) {
+        pendingRepairs.add(egress);
+        if (repairScheduled.compareAndSet(false, true)) {
+            try {
+                repairExecutor.schedule(this::repairBlackholes, repairWindow, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                repairScheduled.set(false);
+            }
+        }
+    }
+
+    // Removes, with a single batch of operations, the rules that lead to
+    // the removed links queued so far
+    private void repairBlackholes() {
+        repairScheduled.set(false);
+
+        List<ConnectPoint> egresses = new ArrayList<>(pendingRepairs);
+        pendingRepairs.removeAll(egresses);
+        if (egresses.isEmpty()) {
+            return;
+        }
 
-        Map<DeviceId, Set<Path>> srcPaths = new HashMap<>();
+        long start = System.nanoTime();
+        Set<FlowRule> stale = new HashSet<>();
+        Map<DeviceId, Set<SrcDstPair>> repaired = new HashMap<>();
+        try {
+            for (ConnectPoint egress : egresses) {
+                fixBlackhole(egress, repaired.computeIfAbsent(egress.deviceId(), k -> new HashSet<>()), stale);
+            }
+
+            if (!stale.isEmpty()) {
+                FlowRuleOperations.Builder operations = FlowRuleOperations.builder();
+                stale.forEach(operations::remove);
+                flowRuleService.apply(operations.build(new FlowRuleOperationsContext() {
+                    @Override
+                    public void onError(FlowRuleOperations ops) {
+                        log.error("Failed to remove the rules leading to the removed links");
+                    }
+                }));
+            }
+        } catch (RuntimeException e) {
+            log.error(e.getMessage());
+        }
+
+        repairedLinks.addAndGet(egresses.size());
+        rulesRemoved.addAndGet(stale.size());
+        repairDuration.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // Collects the rules that lead to a removed link, the pairs already
+    // repaired from the same device are skipped
+    private void fixBlackhole(ConnectPoint egress, Set<SrcDstPair> repaired, Set<FlowRule> stale) {
+        List<FlowRule> rules = installedRules.fromEgress(egress);
+        Set<SrcDstPair> pairs = findSrcDstPairs(rules);
 
         for (SrcDstPair sd : pairs) {
+            if (!repaired.add(sd)) {
+                continue;
+            }
+
             // get the edge deviceID for the src host
-            Host srcHost = hostService.getHost(HostId.hostId(sd.src));
-            Host dstHost = hostService.getHost(HostId.hostId(sd.dst));
+            HostLocation srcHost = hostLocations.location(HostId.hostId(sd.src));
+            HostLocation dstHost = hostLocations.location(HostId.hostId(sd.dst));
             if (srcHost != null && dstHost != null) {
-                DeviceId srcId = srcHost.location().deviceId();
-                DeviceId dstId = dstHost.location().deviceId();
+                DeviceId srcId = srcHost.deviceId();
+                DeviceId dstId = dstHost.deviceId();
                 log.trace("SRC ID is " + srcId + ", DST ID is " + dstId);
 
-                cleanFlowRules(sd, egress.deviceId());
+                cleanFlowRules(sd, egress.deviceId(), stale);
 
-                Set<Path> shortestPaths = srcPaths.get(srcId);
-                if (shortestPaths == null) {
-                    shortestPaths = topologyService.getPaths(topologyService.currentTopology(), egress.deviceId(),
-                            srcId);
-                    srcPaths.put(srcId, shortestPaths);
-                }
-                backTrackBadNodes(shortestPaths, dstId, sd);
+                backTrackBadNodes(pathCache.getPaths(egress.deviceId(), srcId), dstId, sd, stale);
             }
         }
     }
 
     // Backtracks from link down event to remove flows that lead to blackhole
-    private void backTrackBadNodes(Set<Path> shortestPaths, DeviceId dstId, SrcDstPair sd) {
+    private void backTrackBadNodes(Set<Path> shortestPaths, DeviceId dstId, SrcDstPair sd, Set<FlowRule> stale) {
         for (Path p : shortestPaths) {
             List<Link> pathLinks = p.links();
             for (int i = 0; i < pathLinks.size(); i = i + 1) {
@@ -866,57 +1539,35 @@ public class ReactiveForwardingAsk {
                 // skipping the first link because this link's src has already been pruned
                 // beforehand
                 if (i != 0) {
-                    cleanFlowRules(sd, curDevice);
+                    cleanFlowRules(sd, curDevice, stale);
                 }
 
-                Set<Path> pathsFromCurDevice = topologyService.getPaths(topologyService.currentTopology(), curDevice,
-                        dstId);
-                if (pickForwardPath(pathsFromCurDevice, curLink.src().port()) != null) {
+                if (pathCache.pathAvoiding(curDevice, dstId, curLink.src().port()) != null) {
                     break;
                 } else {
                     if (i + 1 == pathLinks.size()) {
-                        cleanFlowRules(sd, curLink.dst().deviceId());
+                        cleanFlowRules(sd, curLink.dst().deviceId(), stale);
                     }
                 }
             }
         }
     }
 
-    // Removes flow rules off specified device with specific SrcDstPair
-    private void cleanFlowRules(SrcDstPair pair, DeviceId id) {
+    // Collects the flow rules off specified device with specific SrcDstPair
+    private void cleanFlowRules(SrcDstPair pair, DeviceId id, Set<FlowRule> stale) {
         log.trace("Searching for flow rules to remove from: " + id);
         log.trace("Removing flows w/ SRC=" + pair.src + ", DST=" + pair.dst);
-        for (FlowEntry r : flowRuleService.getFlowEntries(id)) {
-            boolean matchesSrc = false, matchesDst = false;
-            for (Instruction i : r.treatment().allInstructions()) {
-                if (i.type() == Instruction.Type.OUTPUT) {
-                    // if the flow has matching src and dst
-                    for (Criterion cr : r.selector().criteria()) {
-                        if (cr.type() == Criterion.Type.ETH_DST) {
-                            if (((EthCriterion) cr).mac().equals(pair.dst)) {
-                                matchesDst = true;
-                            }
-                        } else if (cr.type() == Criterion.Type.ETH_SRC) {
-                            if (((EthCriterion) cr).mac().equals(pair.src)) {
-                                matchesSrc = true;
-                            }
-                        }
-                    }
-                }
-            }
-            if (matchesDst && matchesSrc) {
-                log.trace("Removed flow rule from device: " + id);
-                flowRuleService.removeFlowRules((FlowRule) r);
-            }
+        if (pair.src == null || pair.dst == null) {
+            return;
         }
-
+        stale.addAll(installedRules.forPair(pair.src, pair.dst, id));
     }
 
     // Returns a set of src/dst MAC pairs extracted from the specified set of flow
     // entries
-    private Set<SrcDstPair> findSrcDstPairs(Set<FlowEntry> rules) {
+    private Set<SrcDstPair> findSrcDstPairs(List<FlowRule> rules) {
         ImmutableSet.Builder<SrcDstPair> builder = ImmutableSet.builder();
-        for (FlowEntry r : rules) {
+        for (FlowRule r : rules) {
             MacAddress src = null, dst = null;
             for (Criterion cr : r.selector().criteria()) {
                 if (cr.type() == Criterion.Type.ETH_DST) {
@@ -930,24 +1581,17 @@ public class ReactiveForwardingAsk {
         return builder.build();
     }
 
-    // Returns set of flowEntries which were created by this application and which
-    // egress from the
-    // specified connection port
-    private Set<FlowEntry> getFlowRulesFrom(ConnectPoint egress) {
-        ImmutableSet.Builder<FlowEntry> builder = ImmutableSet.builder();
-        flowRuleService.getFlowEntries(egress.deviceId()).forEach(r -> {
-            if (r.appId() == appId.id()) {
-                r.treatment().allInstructions().forEach(i -> {
-                    if (i.type() == Instruction.Type.OUTPUT) {
-                        if (((Instructions.OutputInstruction) i).port().equals(egress.port())) {
-                            builder.add(r);
-                        }
-                    }
-                });
-            }
-        });
+    // Pair and priority of an aggregate rule waiting to be added
+    private static final class PendingMerge {
+        final MacAddress src;
+        final MacAddress dst;
+        final int priority;
 
-        return builder.build();
+        private PendingMerge(MacAddress src, MacAddress dst, int priority) {
+            this.src = src;
+            this.dst = dst;
+            this.priority = priority;
+        }
     }
 
     // Wrapper class for a source and destination pair of MAC addresses
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+/**
+ * @class TimeoutStatistics
+ * @brief Snapshot of the learnt idle timeout of a flow class: how many
+ * rules were installed and expired and how many flows came back to the
+ * controller after their rule expired
+ */
+public final class TimeoutStatistics {
+
+    private final String flowClass;
+    private final int timeout;
+    private final long installed;
+    private final long removed;
+    private final long repacketIns;
+    private final long avoided;
+
+    TimeoutStatistics(String flowClass, int timeout, long installed, long removed, long repacketIns,
+                      long avoided) {
+        this.flowClass = flowClass;
+        this.timeout = timeout;
+        this.installed = installed;
+        this.removed = removed;
+        this.repacketIns = repacketIns;
+        this.avoided = avoided;
+    }
+
+    public String flowClass() {
+        return flowClass;
+    }
+
+    // in seconds
+    public int timeout() {
+        return timeout;
+    }
+
+    public long installed() {
+        return installed;
+    }
+
+    public long removed() {
+        return removed;
+    }
+
+    // flows installed again shortly after their rule expired
+    public long repacketIns() {
+        return repacketIns;
+    }
+
+    // estimate of the packet-ins avoided by the longer timeouts
+    public long avoided() {
+        return avoided;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask.cli;
+
+import org.apache.karaf.shell.commands.Command;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.fwdask.ForwardingAskService;
+import org.onosproject.fwdask.ModuleStatistics;
+
+/**
+ * @class ModulesListCommand
+ * @brief Lists the decision-making modules with their latency and error statistics
+ */
+@Command(scope = "onos", name = "fwdask-modules",
+        description = "Lists the fwdask decision-making modules and their statistics")
+public class ModulesListCommand extends AbstractShellCommand {
+
+    private static final String FORMAT = "%-24s %-9s cost=%d calls=%d errors=%d timeouts=%d "
+            + "mean=%dus p50=%dus p99=%dus cpu=%dus cacheHitRate=%.2f";
+
+    @Override
+    protected void execute() {
+        ForwardingAskService service = get(ForwardingAskService.class);
+
+        for (ModuleStatistics stats : service.getModuleStatistics()) {
+            print(FORMAT, stats.name(), stats.state(), stats.cost(), stats.calls(), stats.errors(),
+                  stats.timeouts(), stats.meanLatency(), stats.medianLatency(), stats.p99Latency(),
+                  stats.cpuTime(), stats.opinionCacheHitRate());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask.cli;
+
+import org.apache.karaf.shell.commands.Command;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.fwdask.ForwardingAskService;
+import org.onosproject.fwdask.TimeoutStatistics;
+
+/**
+ * @class TimeoutsListCommand
+ * @brief Lists the learnt idle timeouts of the flow classes and the
+ * packet-ins they avoided
+ */
+@Command(scope = "onos", name = "fwdask-timeouts",
+        description = "Lists the fwdask adaptive rule timeouts and the packet-ins avoided")
+public class TimeoutsListCommand extends AbstractShellCommand {
+
+    private static final String FORMAT = "%-36s timeout=%ds installed=%d removed=%d repacketIns=%d avoided=%d";
+
+    @Override
+    protected void execute() {
+        ForwardingAskService service = get(ForwardingAskService.class);
+
+        long repacketIns = 0;
+        long avoided = 0;
+        for (TimeoutStatistics stats : service.getTimeoutStatistics()) {
+            print(FORMAT, stats.flowClass(), stats.timeout(), stats.installed(), stats.removed(),
+                  stats.repacketIns(), stats.avoided());
+            repacketIns += stats.repacketIns();
+            avoided += stats.avoided();
+        }
+        print("total repacketIns=%d avoided=%d", repacketIns, avoided);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+/**
+ * @class DecisionCounterMap
+ * @brief Open addressing map from a 64 bit key to the number of accepted
+ * and denied flows, stored in two primitive arrays. When it holds
+ * maxEntries keys all the counters are halved and the keys left without
+ * decisions are dropped, so the memory is bounded and the old decisions
+ * weigh less than the recent ones. Thread-safe.
+ */
+final class DecisionCounterMap {
+
+    private static final long EMPTY = 0;
+
+    private final int maxEntries;
+    private long[] keys;
+    // accepted in the high 32 bits, denied in the low 32 bits
+    private long[] counters;
+    private int size;
+
+    DecisionCounterMap(int maxEntries) {
+        this.maxEntries = maxEntries;
+        int capacity = 16;
+        while (capacity < maxEntries * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        this.counters = new long[capacity];
+    }
+
+    /**
+     * @method record
+     * @brief count a decision
+     * @param key is the key
+     * @param accepted is true if the flow was accepted
+     * @return none
+     */
+    synchronized void record(long key, boolean accepted) {
+        key = key == EMPTY ? 1 : key;
+        int slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            // Every pass halves the counters, so the loop ends
+            while (size >= maxEntries) {
+                age();
+            }
+            slot = slot(key);
+            keys[slot] = key;
+            size++;
+        }
+
+        long value = counters[slot];
+        long acceptedCount = value >>> 32;
+        long deniedCount = value & 0xffffffffL;
+        if (accepted && acceptedCount < 0xffffffffL) {
+            acceptedCount++;
+        } else if (!accepted && deniedCount < 0xffffffffL) {
+            deniedCount++;
+        }
+        counters[slot] = (acceptedCount << 32) | deniedCount;
+    }
+
+    /**
+     * @method get
+     * @brief return the counters of a key
+     * @param key is the key
+     * @return long, accepted in the high 32 bits and denied in the low 32
+     * bits, 0 if the key is unknown
+     */
+    synchronized long get(long key) {
+        key = key == EMPTY ? 1 : key;
+        int slot = slot(key);
+        return keys[slot] == EMPTY ? 0 : counters[slot];
+    }
+
+    static long accepted(long value) {
+        return value >>> 32;
+    }
+
+    static long denied(long value) {
+        return value & 0xffffffffL;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // Linear probing, the table is never more than half full
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) FlowHash.mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void age() {
+        long[] oldKeys = keys;
+        long[] oldCounters = counters;
+        keys = new long[oldKeys.length];
+        counters = new long[oldCounters.length];
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            long value = oldCounters[i];
+            long halved = ((value >>> 33) << 32) | ((value & 0xffffffffL) >>> 1);
+            if (oldKeys[i] != EMPTY && halved != 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counters[slot] = halved;
+                size++;
+            }
+        }
+    }
+}
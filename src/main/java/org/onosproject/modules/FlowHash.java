@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+/**
+ * @class FlowHash
+ * @brief 64 bit hashes of the fields of a flow, computed without allocations,
+ * used by the modules that keep sketches of the flows
+ */
+final class FlowHash {
+
+    private FlowHash() {
+    }
+
+    /**
+     * @method hash
+     * @brief 64 bit hash of a string (e.g. an address)
+     * @param value is the string, can be null
+     * @return long
+     */
+    static long hash(String value) {
+        long h = 1125899906842597L;
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                h = 31 * h + value.charAt(i);
+            }
+        }
+        return mix(h);
+    }
+
+    /**
+     * @method mix
+     * @brief spreads the bits of a value (MurmurHash3 finalizer)
+     * @param h is the value
+     * @return long
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
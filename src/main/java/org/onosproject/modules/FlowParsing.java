@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+/**
+ * @class FlowParsing
+ * @brief Parsers of the addresses of a flow, as they are stored in the Flow
+ * object, into numbers. They don't allocate and return -1 instead of
+ * throwing when the address is not valid.
+ */
+final class FlowParsing {
+
+    private FlowParsing() {
+    }
+
+    /**
+     * @method parseIpv4
+     * @brief parse a dotted IPv4 address
+     * @param address is the address (e.g. "10.0.0.1")
+     * @return long, the address as an unsigned 32 bit number, -1 if it is not
+     * an IPv4 address
+     */
+    static long parseIpv4(CharSequence address) {
+        if (address == null) {
+            return -1;
+        }
+
+        long result = 0;
+        int octet = -1;
+        int octets = 0;
+
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                octets++;
+            } else {
+                return -1;
+            }
+        }
+
+        if (octet < 0 || octets != 3) {
+            return -1;
+        }
+        return (result << 8) | octet;
+    }
+
+    /**
+     * @method parseMac
+     * @brief parse a MAC address
+     * @param address is the address (e.g. "00:00:00:00:00:01")
+     * @return long, the address as an unsigned 48 bit number, -1 if it is not
+     * a MAC address
+     */
+    static long parseMac(CharSequence address) {
+        if (address == null || address.length() != 17) {
+            return -1;
+        }
+
+        long result = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':' && c != '-') {
+                    return -1;
+                }
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return -1;
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+}
@@ -16,8 +16,12 @@
 
 package org.onosproject.modules;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.onosproject.db.DBQuestioner;
 import org.onosproject.fwdask.Flow;
+import org.onosproject.fwdask.FlowContext;
 
 /**
  * @interface Module
@@ -55,14 +59,191 @@ public interface Module {
 
     }
 
+    /**
+     * @enum OpinionScope
+     * @brief Which fields of a Flow an opinion depends on. The PolicyMaker reuses
+     * an opinion for all the flows that the module can't distinguish.
+     */
+    public enum OpinionScope {
+        // the opinion depends on the whole flow: opinions are not reused
+        NONE,
+        // the opinion depends only on the source (IP, or MAC if the flow has no IP)
+        SOURCE,
+        // the opinion depends only on the destination (IP, or MAC if the flow has no IP)
+        DESTINATION,
+        // the opinion depends only on the source and the destination
+        PAIR,
+        // the opinion depends on the destination and its protocol and port
+        SERVICE,
+        // the opinion depends on all the fields but the timestamp
+        FLOW;
+
+        /**
+         * @method key
+         * @brief the key that identifies the flows that share the same opinion
+         * @param pkt is a Flow object
+         * @return String
+         */
+        public String key(Flow pkt) {
+            String src = pkt.getSourceAddress();
+            String dst = pkt.getDestinationAddress();
+
+            switch (this) {
+                case SOURCE:
+                    return src;
+                case DESTINATION:
+                    return dst;
+                case PAIR:
+                    return src + "|" + dst;
+                case SERVICE:
+                    return dst + "|" + pkt.getNetProtocol() + "|" + pkt.getTransportDestination();
+                case FLOW:
+                    return pkt.getVlanID() + "|" + pkt.getSourceMac() + "|" + pkt.getDestinationMac() + "|"
+                            + pkt.getEthType() + "|" + pkt.getNetProtocol() + "|" + src + "|" + dst + "|"
+                            + pkt.getTransportSource() + "|" + pkt.getTransportDestination();
+                default:
+                    return null;
+            }
+        }
+    }
+
     /**
      * @method givesOpinion
      * @brief gives an Opinion on the Flow
      * @param pkt is a Flow object
      * @param dbQuestioner is a DBQUestioner object
      * used to interact with the XML Database
-     * @return Module.Opinion
+     * @return Module.Opinion, null if the module has no opinion on the Flow
      */
     public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner);
 
+    /**
+     * @method givesOpinion
+     * @brief gives an Opinion on the Flow of the context. This is the method
+     * called by the PolicyMaker: modules that need the features of the
+     * FlowContext override it, the others keep implementing
+     * givesOpinion(Flow, DBQuestioner), to which it defaults.
+     * A module that only overrides this method can implement
+     * givesOpinion(Flow, DBQuestioner) as
+     * givesOpinion(new FlowContext(pkt, dbQuestioner)).
+     * @param context is a FlowContext object
+     * @return Module.Opinion, null if the module has no opinion on the Flow
+     */
+    public default Opinion givesOpinion(FlowContext context) {
+        return givesOpinion(context.getFlow(), context.getDBQuestioner());
+    }
+
+    /**
+     * @method givesOpinions
+     * @brief gives an Opinion on each one of a batch of flows. When several
+     * flows are waiting for the opinion of a module that overrides this
+     * method, the PolicyMaker asks them all at once, so that the module can
+     * answer with a single query to the XML Database (e.g. the batch
+     * DBQuestioner.countFlows) or a single pass of its model.
+     * The modules that don't override it are asked one flow at a time.
+     * @param contexts is the List of the FlowContext of the flows
+     * @return List of Module.Opinion, in the same order of the contexts,
+     * with null for the flows on which the module has no opinion
+     */
+    public default List<Opinion> givesOpinions(List<FlowContext> contexts) {
+        List<Opinion> opinions = new ArrayList<Opinion>(contexts.size());
+        for (FlowContext context : contexts) {
+            opinions.add(givesOpinion(context));
+        }
+        return opinions;
+    }
+
+    /**
+     * @method cost
+     * @brief declares how expensive the module is (e.g. 0 for a module that only
+     * looks at the Flow, more for a module that queries the XML Database).
+     * The modules are interrogated from the cheapest and the most expensive
+     * ones are skipped if their opinion can't change the outcome anymore.
+     * @return int, 0 by default
+     */
+    public default int cost() {
+        return 0;
+    }
+
+    /**
+     * @method weight
+     * @brief declares the weight of the opinions of the module in the average
+     * @return float greater than 0, 1 by default
+     */
+    public default float weight() {
+        return 1;
+    }
+
+    /**
+     * @method maxConfidence
+     * @brief declares the highest confidence that the module can give, it is
+     * asked again for every flow so it can change over time
+     * @return float between 0 and 100, 100 by default
+     */
+    public default float maxConfidence() {
+        return 100;
+    }
+
+    /**
+     * @method isVeto
+     * @brief declares if the module has a veto: when it does not want a flow
+     * the flow is discarded whatever the other modules think
+     * @return boolean, false by default
+     */
+    public default boolean isVeto() {
+        return false;
+    }
+
+    /**
+     * @method opinionScope
+     * @brief declares which fields of the Flow the opinion depends on,
+     * so that it can be reused for other flows (see opinionTtl)
+     * @return OpinionScope, NONE by default
+     */
+    public default OpinionScope opinionScope() {
+        return OpinionScope.NONE;
+    }
+
+    /**
+     * @method opinionTtl
+     * @brief declares for how long an opinion can be reused
+     * @return the time to live in milliseconds, 0 (never reused) by default
+     */
+    public default long opinionTtl() {
+        return 0;
+    }
+
+    /**
+     * @method flowObserved
+     * @brief called for every packet-in of a new flow, i.e. not filtered
+     * and not already decided, before any opinion is asked.
+     * Modules that keep their own statistics update them here; it must be
+     * fast and thread-safe, it runs on the packet processing thread.
+     * @param pkt is a Flow object
+     * @return none
+     */
+    public default void flowObserved(Flow pkt) {
+    }
+
+    /**
+     * @method decisionTaken
+     * @brief called when the operator decides whether to accept a flow.
+     * It must be thread-safe.
+     * @param pkt is a Flow object
+     * @param accepted is true if the flow was accepted
+     * @return none
+     */
+    public default void decisionTaken(Flow pkt, boolean accepted) {
+    }
+
+    /**
+     * @method close
+     * @brief called when the module is no longer interrogated: it was
+     * removed, replaced by a module with the same name or the application
+     * stopped. Modules that run their own threads stop them here.
+     * @return none
+     */
+    public default void close() {
+    }
+
 }
@@ -25,4 +25,9 @@ public class ModuleAlwaysFalse implements Module {
         return new Opinion(false, 70);
     }
 
+    @Override
+    public float maxConfidence() {
+        return 70;
+    }
+
 }
@@ -25,4 +25,9 @@ public class ModuleAlwaysFalse2 implements Module {
         return new Opinion(false, 45);
     }
 
+    @Override
+    public float maxConfidence() {
+        return 45;
+    }
+
 }
@@ -25,4 +25,9 @@ public class ModuleAlwaysTrue implements Module {
         return new Opinion(true, 30);
     }
 
+    @Override
+    public float maxConfidence() {
+        return 30;
+    }
+
 }
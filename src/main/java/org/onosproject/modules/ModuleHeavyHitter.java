@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.modules;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.fwdask.Flow;
+
+/**
+ * @class ModuleHeavyHitter
+ * @brief Module that does not want the flows of the sources that open new
+ * flows much faster than they used to. The rate of new flows of every source
+ * and destination is estimated, in fixed memory, with count-min sketches over
+ * a sliding window; a space-saving summary confirms that a source is really
+ * among the heaviest ones before it is accused.
+ * The module never queries the XML Database.
+ */
+public class ModuleHeavyHitter implements Module {
+
+    // The sliding window is made of SLOTS slots of SLOT_MS milliseconds
+    private static final int SLOTS = 12;
+    private static final long SLOT_MS = 5000;
+
+    // Count-min sketch size: DEPTH rows of WIDTH (a power of 2) counters
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1024;
+
+    // Number of heavy hitters tracked by the space-saving summary
+    private static final int TOP_K = 64;
+
+    // New flows per slot below which a source is never accused
+    private static final int MIN_RATE = 50;
+    // How many times its baseline a source must exceed to be accused
+    private static final float RATE_FACTOR = 4;
+
+    // How long an opinion on a pair is reused
+    private static final long OPINION_TTL_MS = 1000;
+
+    private final HeavyHitterSketch sources = new HeavyHitterSketch();
+    private final HeavyHitterSketch destinations = new HeavyHitterSketch();
+
+    @Override
+    public void flowObserved(Flow pkt) {
+        long now = System.currentTimeMillis();
+        sources.add(FlowHash.hash(pkt.getSourceAddress()), now);
+        destinations.add(FlowHash.hash(pkt.getDestinationAddress()), now);
+    }
+
+    @Override
+    public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+        long now = System.currentTimeMillis();
+
+        // A destination flooded by many sources is a weaker signal than a
+        // source that floods the network
+        float confidence = Math.max(sources.excess(FlowHash.hash(pkt.getSourceAddress()), now),
+                                    destinations.excess(FlowHash.hash(pkt.getDestinationAddress()), now) / 2);
+
+        if (confidence <= 0) {
+            return null;
+        }
+        return new Opinion(false, confidence);
+    }
+
+    // The sketches are in memory, the opinion costs a few hash lookups
+    @Override
+    public int cost() {
+        return 1;
+    }
+
+    // The opinion only depends on the source and the destination
+    @Override
+    public OpinionScope opinionScope() {
+        return OpinionScope.PAIR;
+    }
+
+    // The rates change every slot: the opinion is reused for a short time only
+    @Override
+    public long opinionTtl() {
+        return OPINION_TTL_MS;
+    }
+
+    /**
+     * @class HeavyHitterSketch
+     * @brief Sliding window of count-min sketches with a space-saving summary
+     * of the heaviest keys. The counters are updated without locks, a few
+     * increments can be lost while a slot is recycled.
+     */
+    private static final class HeavyHitterSketch {
+
+        private final AtomicIntegerArray[] slots = new AtomicIntegerArray[SLOTS];
+        private final SpaceSaving top = new SpaceSaving(TOP_K);
+        private final long startEpoch;
+        private volatile long currentEpoch;
+
+        HeavyHitterSketch() {
+            for (int i = 0; i < SLOTS; i++) {
+                slots[i] = new AtomicIntegerArray(DEPTH * WIDTH);
+            }
+            startEpoch = System.currentTimeMillis() / SLOT_MS;
+            currentEpoch = startEpoch;
+        }
+
+        void add(long key, long now) {
+            AtomicIntegerArray slot = slots[(int) (advance(now) % SLOTS)];
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32);
+            for (int row = 0; row < DEPTH; row++) {
+                slot.incrementAndGet(row * WIDTH + ((h1 + row * h2) & (WIDTH - 1)));
+            }
+            top.add(key);
+        }
+
+        /**
+         * @method excess
+         * @brief how much the rate of a key exceeds its baseline: the rate is
+         * the number of new flows in the last SLOT_MS milliseconds, the
+         * baseline is the average of the older slots of the window
+         * @param key is the hash of the key
+         * @param now is the current time in milliseconds
+         * @return float, a percentage, 0 if the rate is normal
+         */
+        float excess(long key, long now) {
+            long epoch = advance(now);
+
+            // Without a full window there is no baseline yet, and only the
+            // confirmed heavy hitters can be accused
+            if (epoch - startEpoch < SLOTS || top.guaranteedCount(key) < MIN_RATE) {
+                return 0;
+            }
+
+            float fraction = (float) (now % SLOT_MS) / SLOT_MS;
+            float rate = estimate(key, epoch) + estimate(key, epoch - 1) * (1 - fraction);
+
+            long older = 0;
+            for (int i = 2; i < SLOTS; i++) {
+                older += estimate(key, epoch - i);
+            }
+            float threshold = Math.max(MIN_RATE, (float) older / (SLOTS - 2) * RATE_FACTOR);
+
+            if (rate <= threshold) {
+                return 0;
+            }
+            return Math.min(100, (rate - threshold) / threshold * 100);
+        }
+
+        private int estimate(long key, long epoch) {
+            AtomicIntegerArray slot = slots[(int) (epoch % SLOTS)];
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32);
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, slot.get(row * WIDTH + ((h1 + row * h2) & (WIDTH - 1))));
+            }
+            return min;
+        }
+
+        /**
+         * @method advance
+         * @brief moves the window to the current time, clearing the slots
+         * that are recycled and decaying the space-saving summary
+         * @param now is the current time in milliseconds
+         * @return long, the current epoch
+         */
+        private long advance(long now) {
+            long epoch = now / SLOT_MS;
+            if (epoch <= currentEpoch) {
+                return currentEpoch;
+            }
+
+            synchronized (this) {
+                long last = currentEpoch;
+                if (epoch > last) {
+                    for (long e = Math.max(last + 1, epoch - SLOTS + 1); e <= epoch; e++) {
+                        AtomicIntegerArray slot = slots[(int) (e % SLOTS)];
+                        for (int i = 0; i < slot.length(); i++) {
+                            slot.set(i, 0);
+                        }
+                    }
+                    top.decay((int) Math.min(epoch - last, 31));
+                    currentEpoch = epoch;
+                }
+            }
+            return epoch;
+        }
+    }
+
+    /**
+     * @class SpaceSaving
+     * @brief Space-saving summary of the K most frequent keys. Every entry
+     * keeps its count and the overestimation error it inherited when it
+     * replaced the least frequent key, so count - error is a lower bound
+     * of the real frequency.
+     */
+    private static final class SpaceSaving {
+
+        private final long[] keys;
+        private final int[] counts;
+        private final int[] errors;
+        private int size;
+
+        SpaceSaving(int k) {
+            keys = new long[k];
+            counts = new int[k];
+            errors = new int[k];
+        }
+
+        synchronized void add(long key) {
+            int min = 0;
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    counts[i]++;
+                    return;
+                }
+                if (counts[i] < counts[min]) {
+                    min = i;
+                }
+            }
+
+            if (size < keys.length) {
+                keys[size] = key;
+                counts[size] = 1;
+                errors[size] = 0;
+                size++;
+            } else {
+                keys[min] = key;
+                errors[min] = counts[min];
+                counts[min]++;
+            }
+        }
+
+        synchronized int guaranteedCount(long key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    return counts[i] - errors[i];
+                }
+            }
+            return 0;
+        }
+
+        // Halve the counts once per elapsed slot, so that the summary follows the window
+        synchronized void decay(int halvings) {
+            for (int i = 0; i < size; i++) {
+                counts[i] >>>= halvings;
+                errors[i] >>>= halvings;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.fwdask.Flow;
+
+/**
+ * @class ModuleHistory
+ * @brief Module that answers as the operator answered for similar flows.
+ * On every decision it updates the number of accepted and denied flows of
+ * the source, of the destination service (address, protocol and port) and
+ * of the pair of subnets (/24 for IPv4, the addresses otherwise). The
+ * opinion is the smoothed acceptance ratio of the three, the service
+ * weighing most; without decisions on similar flows it has no opinion.
+ * The history is kept in memory, the XML Database is not queried.
+ */
+public class ModuleHistory implements Module {
+
+    // Keys tracked for each kind of similarity
+    private static final int MAX_ENTRIES = 65536;
+
+    private static final double SERVICE_WEIGHT = 3;
+    private static final double SOURCE_WEIGHT = 2;
+    private static final double SUBNETS_WEIGHT = 1;
+
+    // Number of decisions after which a counter is fully trusted
+    private static final double FULL_EVIDENCE = 10;
+
+    private static final long SUBNET_MASK = 0xffffff00L;
+
+    private final DecisionCounterMap sources = new DecisionCounterMap(MAX_ENTRIES);
+    private final DecisionCounterMap services = new DecisionCounterMap(MAX_ENTRIES);
+    private final DecisionCounterMap subnets = new DecisionCounterMap(MAX_ENTRIES);
+
+    @Override
+    public void decisionTaken(Flow pkt, boolean accepted) {
+        sources.record(sourceKey(pkt), accepted);
+        services.record(serviceKey(pkt), accepted);
+        subnets.record(subnetsKey(pkt), accepted);
+    }
+
+    @Override
+    public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+        double weighted = 0;
+        double weights = 0;
+
+        long service = services.get(serviceKey(pkt));
+        long source = sources.get(sourceKey(pkt));
+        long pair = subnets.get(subnetsKey(pkt));
+
+        weights += weight(service, SERVICE_WEIGHT);
+        weighted += weight(service, SERVICE_WEIGHT) * ratio(service);
+        weights += weight(source, SOURCE_WEIGHT);
+        weighted += weight(source, SOURCE_WEIGHT) * ratio(source);
+        weights += weight(pair, SUBNETS_WEIGHT);
+        weighted += weight(pair, SUBNETS_WEIGHT) * ratio(pair);
+
+        if (weights == 0) {
+            return null;
+        }
+
+        double probability = weighted / weights;
+        float confidence = (float) Math.min(100, Math.abs(probability - 0.5) * 200);
+        return new Opinion(probability >= 0.5, confidence);
+    }
+
+    // The counters are in memory, the opinion costs three hash lookups
+    @Override
+    public int cost() {
+        return 1;
+    }
+
+    // Acceptance ratio with Laplace smoothing: a single decision is not a certainty
+    private static double ratio(long counters) {
+        double accepted = DecisionCounterMap.accepted(counters);
+        double denied = DecisionCounterMap.denied(counters);
+        return (accepted + 1) / (accepted + denied + 2);
+    }
+
+    // The counters with few decisions weigh less
+    private static double weight(long counters, double weight) {
+        double decisions = DecisionCounterMap.accepted(counters) + DecisionCounterMap.denied(counters);
+        return weight * Math.min(decisions, FULL_EVIDENCE) / FULL_EVIDENCE;
+    }
+
+    private static long sourceKey(Flow pkt) {
+        return FlowHash.hash(pkt.getSourceAddress());
+    }
+
+    private static long serviceKey(Flow pkt) {
+        long service = ((long) pkt.getNetProtocol() << 16) | (pkt.getTransportDestination() & 0xffff);
+        return FlowHash.mix(FlowHash.hash(pkt.getDestinationAddress()) ^ service);
+    }
+
+    private static long subnetsKey(Flow pkt) {
+        long source = FlowParsing.parseIpv4(pkt.getNetSource());
+        long destination = FlowParsing.parseIpv4(pkt.getNetDestination());
+
+        if (source < 0 || destination < 0) {
+            return FlowHash.mix(sourceKey(pkt) * 31 + FlowHash.hash(pkt.getDestinationAddress()));
+        }
+        return FlowHash.mix(((source & SUBNET_MASK) << 32) | (destination & SUBNET_MASK));
+    }
+
+}
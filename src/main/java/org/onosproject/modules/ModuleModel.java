@@ -0,0 +1,309 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.fwdask.Flow;
+import org.onosproject.fwdask.FlowContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @class ModuleModel
+ * @brief Module that scores the flows with a logistic regression trained
+ * offline (e.g. on the flow history of the XML Database, labelling the flows
+ * with the decisions of the operator). The model is read when the module is
+ * loaded from the JSON file named by the fwdask.model system property
+ * (etc/fwdask-model.json by default), without it the module has no opinion.
+ * The score is the probability that the operator accepts the flow: the
+ * module wants the flow if it is at least 0.5, with a confidence that grows
+ * with the distance from 0.5. The evaluation does not allocate.
+ */
+public class ModuleModel implements Module {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String MODEL_FILE_PROPERTY = "fwdask.model";
+    private static final String DEFAULT_MODEL_FILE = "etc/fwdask-model.json";
+
+    // Features of the flow, indexes of the weights
+    private static final String[] FEATURES = {
+        "protocol.tcp",
+        "protocol.udp",
+        "protocol.icmp",
+        "protocol.other",
+        "destPort.wellKnown",
+        "destPort.registered",
+        "destPort.dynamic",
+        "recentFlowsFromSource",
+        "recentFlowsToDestination",
+        "distinctDestinationPorts",
+        "newSource",
+        "pairAccepted",
+        "pairDenied"
+    };
+    private static final int PROTOCOL_TCP = 0;
+    private static final int PROTOCOL_UDP = 1;
+    private static final int PROTOCOL_ICMP = 2;
+    private static final int PROTOCOL_OTHER = 3;
+    private static final int PORT_WELL_KNOWN = 4;
+    private static final int PORT_REGISTERED = 5;
+    private static final int PORT_DYNAMIC = 6;
+    private static final int RECENT_FLOWS_FROM_SOURCE = 7;
+    private static final int RECENT_FLOWS_TO_DESTINATION = 8;
+    private static final int DISTINCT_DESTINATION_PORTS = 9;
+    private static final int NEW_SOURCE = 10;
+    private static final int PAIR_ACCEPTED = 11;
+    private static final int PAIR_DENIED = 12;
+
+    // A source seen for the first time less than NEW_SOURCE_MS ago is new
+    private static final long NEW_SOURCE_MS = 60000;
+
+    private static final int TCP = 6;
+    private static final int UDP = 17;
+    private static final int ICMP = 1;
+    private static final int ICMP6 = 58;
+
+    // The opinions are allocated once, one per integer confidence
+    private static final Opinion[] ACCEPT = new Opinion[101];
+    private static final Opinion[] DENY = new Opinion[101];
+
+    static {
+        for (int i = 0; i <= 100; i++) {
+            ACCEPT[i] = new Opinion(true, i);
+            DENY[i] = new Opinion(false, i);
+        }
+    }
+
+    private boolean loaded = false;
+    private double bias;
+    private final double[] weights = new double[FEATURES.length];
+    // Weights of single destination ports, ports sorted
+    private int[] ports = new int[0];
+    private double[] portWeights = new double[0];
+    // Weights of the IPv4 networks of the source and of the destination
+    private long[] sourceNetworks = new long[0];
+    private long[] sourceMasks = new long[0];
+    private double[] sourceWeights = new double[0];
+    private long[] destinationNetworks = new long[0];
+    private long[] destinationMasks = new long[0];
+    private double[] destinationWeights = new double[0];
+    // Opinions with a lower confidence are not given
+    private int minConfidence = 0;
+
+    public ModuleModel() {
+        Path modelFile = Paths.get(System.getProperty(MODEL_FILE_PROPERTY, DEFAULT_MODEL_FILE));
+
+        if (!Files.isRegularFile(modelFile)) {
+            log.info("{} not found, the module has no opinion", modelFile);
+            return;
+        }
+
+        try {
+            load(new ObjectMapper().readTree(modelFile.toFile()));
+            loaded = true;
+            log.info("Model loaded from {}", modelFile);
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Invalid model {}: {}", modelFile, e.getMessage());
+        }
+    }
+
+    /**
+     * @method load
+     * @brief read the model, e.g.
+     *
+     *     {"bias": -0.4,
+     *      "weights": {"protocol.tcp": 0.8, "pairDenied": -2.5, ...},
+     *      "ports": {"22": -0.3, "443": 0.6},
+     *      "sourceNetworks": {"10.0.0.0/8": 0.7},
+     *      "destinationNetworks": {"192.168.0.0/16": 0.2},
+     *      "minConfidence": 10}
+     *
+     * The counters (recentFlowsFromSource, recentFlowsToDestination,
+     * distinctDestinationPorts, pairAccepted, pairDenied) are scaled as
+     * ln(1 + counter), the other features are 0 or 1.
+     * @param model is the JSON of the model
+     * @throws IllegalArgumentException if the model is not valid
+     */
+    private void load(JsonNode model) {
+        bias = model.path("bias").asDouble(0);
+        minConfidence = model.path("minConfidence").asInt(0);
+
+        Iterator<Map.Entry<String, JsonNode>> entries = model.path("weights").fields();
+        while (entries.hasNext()) {
+            Map.Entry<String, JsonNode> entry = entries.next();
+            int feature = Arrays.asList(FEATURES).indexOf(entry.getKey());
+            if (feature < 0) {
+                throw new IllegalArgumentException("unknown feature " + entry.getKey());
+            }
+            weights[feature] = entry.getValue().asDouble();
+        }
+
+        List<Map.Entry<String, JsonNode>> portEntries = new ArrayList<Map.Entry<String, JsonNode>>();
+        model.path("ports").fields().forEachRemaining(portEntries::add);
+        portEntries.sort((a, b) -> Integer.compare(parsePort(a.getKey()), parsePort(b.getKey())));
+        ports = new int[portEntries.size()];
+        portWeights = new double[portEntries.size()];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = parsePort(portEntries.get(i).getKey());
+            portWeights[i] = portEntries.get(i).getValue().asDouble();
+        }
+
+        List<Map.Entry<String, JsonNode>> networks = new ArrayList<Map.Entry<String, JsonNode>>();
+        model.path("sourceNetworks").fields().forEachRemaining(networks::add);
+        sourceNetworks = new long[networks.size()];
+        sourceMasks = new long[networks.size()];
+        sourceWeights = new double[networks.size()];
+        loadNetworks(networks, sourceNetworks, sourceMasks, sourceWeights);
+
+        networks.clear();
+        model.path("destinationNetworks").fields().forEachRemaining(networks::add);
+        destinationNetworks = new long[networks.size()];
+        destinationMasks = new long[networks.size()];
+        destinationWeights = new double[networks.size()];
+        loadNetworks(networks, destinationNetworks, destinationMasks, destinationWeights);
+    }
+
+    private static int parsePort(String port) {
+        try {
+            return Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid port " + port);
+        }
+    }
+
+    private static void loadNetworks(List<Map.Entry<String, JsonNode>> entries, long[] networks,
+                                     long[] masks, double[] networkWeights) {
+        for (int i = 0; i < entries.size(); i++) {
+            String network = entries.get(i).getKey();
+            int slash = network.indexOf('/');
+            long address = FlowParsing.parseIpv4(slash < 0 ? network : network.substring(0, slash));
+            int length = slash < 0 ? 32 : parsePort(network.substring(slash + 1));
+            if (address < 0 || length < 0 || length > 32) {
+                throw new IllegalArgumentException("invalid network " + network);
+            }
+            masks[i] = (0xffffffffL << (32 - length)) & 0xffffffffL;
+            networks[i] = address & masks[i];
+            networkWeights[i] = entries.get(i).getValue().asDouble();
+        }
+    }
+
+    @Override
+    public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+        return givesOpinion(new FlowContext(pkt, dbQuestioner));
+    }
+
+    // The features of the FlowContext come from in-memory counters
+    @Override
+    public int cost() {
+        return 2;
+    }
+
+    // Without a model the module never has an opinion
+    @Override
+    public float maxConfidence() {
+        return loaded ? 100 : 0;
+    }
+
+    @Override
+    public Opinion givesOpinion(FlowContext context) {
+        if (!loaded) {
+            return null;
+        }
+
+        Flow pkt = context.getFlow();
+        double score = bias;
+
+        int protocol = pkt.getNetProtocol();
+        if (!pkt.isNetworkInspectionSupported()) {
+            score += weights[PROTOCOL_OTHER];
+        } else if (protocol == TCP) {
+            score += weights[PROTOCOL_TCP];
+        } else if (protocol == UDP) {
+            score += weights[PROTOCOL_UDP];
+        } else if (protocol == ICMP || protocol == ICMP6) {
+            score += weights[PROTOCOL_ICMP];
+        } else {
+            score += weights[PROTOCOL_OTHER];
+        }
+
+        if (pkt.isTransportInspectionSupported() && protocol != ICMP && protocol != ICMP6) {
+            int port = pkt.getTransportDestination();
+            if (port < 1024) {
+                score += weights[PORT_WELL_KNOWN];
+            } else if (port < 49152) {
+                score += weights[PORT_REGISTERED];
+            } else {
+                score += weights[PORT_DYNAMIC];
+            }
+
+            int index = Arrays.binarySearch(ports, port);
+            if (index >= 0) {
+                score += portWeights[index];
+            }
+        }
+
+        score += networkScore(FlowParsing.parseIpv4(pkt.getNetSource()),
+                              sourceNetworks, sourceMasks, sourceWeights);
+        score += networkScore(FlowParsing.parseIpv4(pkt.getNetDestination()),
+                              destinationNetworks, destinationMasks, destinationWeights);
+
+        score += weights[RECENT_FLOWS_FROM_SOURCE] * Math.log1p(context.getRecentFlowsFromSource());
+        score += weights[RECENT_FLOWS_TO_DESTINATION] * Math.log1p(context.getRecentFlowsToDestination());
+        score += weights[DISTINCT_DESTINATION_PORTS] * Math.log1p(context.getDistinctDestinationPorts());
+        score += weights[PAIR_ACCEPTED] * Math.log1p(context.getPairAccepted());
+        score += weights[PAIR_DENIED] * Math.log1p(context.getPairDenied());
+
+        long firstSeen = context.getSourceFirstSeen();
+        if (firstSeen < 0 || System.currentTimeMillis() - firstSeen < NEW_SOURCE_MS) {
+            score += weights[NEW_SOURCE];
+        }
+
+        double probability = 1 / (1 + Math.exp(-score));
+        int confidence = (int) Math.round(Math.abs(probability - 0.5) * 200);
+        if (confidence < minConfidence) {
+            return null;
+        }
+        return probability >= 0.5 ? ACCEPT[confidence] : DENY[confidence];
+    }
+
+    private static double networkScore(long address, long[] networks, long[] masks, double[] networkWeights) {
+        double score = 0;
+        if (address < 0) {
+            return score;
+        }
+        for (int i = 0; i < networks.length; i++) {
+            if ((address & masks[i]) == networks[i]) {
+                score += networkWeights[i];
+            }
+        }
+        return score;
+    }
+
+}
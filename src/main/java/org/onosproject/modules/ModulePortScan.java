@@ -0,0 +1,371 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.modules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.fwdask.Flow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @class ModulePortScan
+ * @brief Module that does not want the flows of the sources that contact
+ * many distinct destinations (host scan) or many distinct ports (port scan).
+ * For every source it keeps two HyperLogLog sketches, of the destination
+ * addresses and of the destination ports, over a decaying window.
+ * The sources live in a fixed-size table: the memory used does not depend
+ * on how many sources are seen, idle sources are evicted first.
+ * The threshold and the highest confidence are read from the
+ * fwdask.portscan.threshold and fwdask.portscan.maxConfidence system
+ * properties, the sources listed in fwdask.portscan.allow (addresses or
+ * networks, comma separated) are never judged.
+ */
+public class ModulePortScan implements Module {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String THRESHOLD_PROPERTY = "fwdask.portscan.threshold";
+    private static final String MAX_CONFIDENCE_PROPERTY = "fwdask.portscan.maxConfidence";
+    private static final String ALLOW_PROPERTY = "fwdask.portscan.allow";
+
+    // Number of sources tracked (a power of 2) and how many slots are probed
+    private static final int TABLE_SIZE = 4096;
+    private static final int PROBES = 8;
+
+    // A source that opens no new flow for IDLE_MS can be evicted
+    private static final long IDLE_MS = 300000;
+
+    // The sketches cover the last one or two WINDOW_MS windows
+    private static final long WINDOW_MS = 30000;
+
+    // HyperLogLog with 2^PRECISION registers, about 9% standard error
+    private static final int PRECISION = 7;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    // Distinct destinations or ports above which a source is a scanner, by
+    // default, and the confidence at the threshold
+    private static final int DEFAULT_FAN_OUT_THRESHOLD = 64;
+    private static final float DEFAULT_MAX_CONFIDENCE = 100;
+    private static final float MIN_CONFIDENCE = 80;
+
+    // How long an opinion on a source is reused
+    private static final long OPINION_TTL_MS = 1000;
+
+    private final Source[] table = new Source[TABLE_SIZE];
+
+    private final int fanOutThreshold;
+    private final float maxConfidence;
+    // The sources never judged: networks and the addresses that are not IP
+    private final List<IpPrefix> allowedNetworks = new ArrayList<IpPrefix>();
+    private final Set<String> allowedAddresses = new HashSet<String>();
+
+    public ModulePortScan() {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            table[i] = new Source();
+        }
+
+        fanOutThreshold = Math.max(1, (int) readProperty(THRESHOLD_PROPERTY, DEFAULT_FAN_OUT_THRESHOLD));
+        maxConfidence = Math.max(0, Math.min(100, readProperty(MAX_CONFIDENCE_PROPERTY, DEFAULT_MAX_CONFIDENCE)));
+        for (String entry : System.getProperty(ALLOW_PROPERTY, "").split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            try {
+                allowedNetworks.add(entry.contains("/") ? IpPrefix.valueOf(entry)
+                        : IpAddress.valueOf(entry).toIpPrefix());
+            } catch (IllegalArgumentException e) {
+                allowedAddresses.add(entry.toLowerCase());
+            }
+        }
+    }
+
+    @Override
+    public void flowObserved(Flow pkt) {
+        if (isAllowed(pkt.getSourceAddress())) {
+            return;
+        }
+
+        long key = FlowHash.hash(pkt.getSourceAddress());
+        long destination = FlowHash.hash(pkt.getDestinationAddress());
+        long port = pkt.isTransportInspectionSupported()
+                ? FlowHash.mix(((long) pkt.getNetProtocol() << 16) | pkt.getTransportDestination()) : 0;
+        long now = System.currentTimeMillis();
+
+        Source source = claim(key, now);
+        synchronized (source) {
+            if (source.key != key) {
+                // Evicted meanwhile by another source, the flow is lost
+                return;
+            }
+            source.rotate(now);
+            source.lastSeen = now;
+            source.destinations.add(destination);
+            if (port != 0) {
+                source.ports.add(port);
+            }
+        }
+    }
+
+    @Override
+    public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+        if (isAllowed(pkt.getSourceAddress())) {
+            return null;
+        }
+
+        long key = FlowHash.hash(pkt.getSourceAddress());
+        long now = System.currentTimeMillis();
+        double fanOut = 0;
+
+        int index = (int) key & (TABLE_SIZE - 1);
+        for (int i = 0; i < PROBES; i++) {
+            Source source = table[(index + i) & (TABLE_SIZE - 1)];
+            synchronized (source) {
+                if (source.used && source.key == key) {
+                    if (now - source.lastSeen < IDLE_MS) {
+                        source.rotate(now);
+                        fanOut = Math.max(source.destinations.estimate(), source.ports.estimate());
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (fanOut < fanOutThreshold) {
+            return null;
+        }
+
+        // MIN_CONFIDENCE (at most the highest confidence) at the threshold,
+        // the highest confidence from four times the threshold
+        float minConfidence = Math.min(MIN_CONFIDENCE, maxConfidence);
+        double excess = Math.min(1, (fanOut - fanOutThreshold) / (3.0 * fanOutThreshold));
+        return new Opinion(false, (float) (minConfidence + (maxConfidence - minConfidence) * excess));
+    }
+
+    @Override
+    public float maxConfidence() {
+        return maxConfidence;
+    }
+
+    // The sketches are in memory, the opinion costs a few hash lookups
+    @Override
+    public int cost() {
+        return 1;
+    }
+
+    // The opinion only depends on the source
+    @Override
+    public OpinionScope opinionScope() {
+        return OpinionScope.SOURCE;
+    }
+
+    // The fan-out of a source grows while it scans: the opinion is reused
+    // for a short time only
+    @Override
+    public long opinionTtl() {
+        return OPINION_TTL_MS;
+    }
+
+    /**
+     * @method isAllowed
+     * @brief tell if a source is in the allow list
+     * @param address is the source address of the flow
+     * @return boolean, true if the source is never judged
+     */
+    private boolean isAllowed(String address) {
+        if (address == null || (allowedNetworks.isEmpty() && allowedAddresses.isEmpty())) {
+            return false;
+        }
+        if (allowedAddresses.contains(address.toLowerCase())) {
+            return true;
+        }
+        if (allowedNetworks.isEmpty()) {
+            return false;
+        }
+
+        IpAddress ip;
+        try {
+            ip = IpAddress.valueOf(address);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (IpPrefix network : allowedNetworks) {
+            if (network.contains(ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @method readProperty
+     * @brief read a number from a system property
+     * @param name is the name of the property
+     * @param defaultValue is the value used if the property is not set or
+     * is not a number
+     * @return float
+     */
+    private float readProperty(String name, float defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            float configured = Float.parseFloat(value.trim());
+            log.info("Configured. {} is configured to {}", name, configured);
+            return configured;
+        } catch (NumberFormatException e) {
+            log.error(e.getMessage());
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @method claim
+     * @brief find the slot of a source, taking a free, idle or the least
+     * recently seen slot among the probed ones if the source is new
+     * @param key is the hash of the source address
+     * @param now is the current time in milliseconds
+     * @return Source
+     */
+    private Source claim(long key, long now) {
+        int index = (int) key & (TABLE_SIZE - 1);
+        Source victim = null;
+
+        for (int i = 0; i < PROBES; i++) {
+            Source source = table[(index + i) & (TABLE_SIZE - 1)];
+            synchronized (source) {
+                if (source.used && source.key == key) {
+                    return source;
+                }
+                if (!source.used || now - source.lastSeen >= IDLE_MS) {
+                    if (victim == null || victim.used) {
+                        victim = source;
+                    }
+                } else if (victim == null || (victim.used && source.lastSeen < victim.lastSeen)) {
+                    victim = source;
+                }
+            }
+        }
+
+        synchronized (victim) {
+            // Another thread may have claimed a slot for the same source meanwhile
+            if (!victim.used || victim.key != key) {
+                victim.reset(key, now);
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * @class Source
+     * @brief Slot of the table: a source and its sketches. The fields are
+     * guarded by the Source itself.
+     */
+    private static final class Source {
+        private boolean used;
+        private long key;
+        private long lastSeen;
+        private long window;
+        private final HyperLogLog destinations = new HyperLogLog();
+        private final HyperLogLog ports = new HyperLogLog();
+
+        void reset(long key, long now) {
+            this.used = true;
+            this.key = key;
+            this.lastSeen = now;
+            this.window = now / WINDOW_MS;
+            destinations.clear();
+            ports.clear();
+        }
+
+        void rotate(long now) {
+            long current = now / WINDOW_MS;
+            if (current > window) {
+                destinations.rotate(current - window);
+                ports.rotate(current - window);
+                window = current;
+            }
+        }
+    }
+
+    /**
+     * @class HyperLogLog
+     * @brief HyperLogLog sketch split in two generations: the current window
+     * and the previous one, the estimate covers both
+     */
+    private static final class HyperLogLog {
+        private byte[] current = new byte[REGISTERS];
+        private byte[] previous = new byte[REGISTERS];
+
+        void add(long hash) {
+            int index = (int) (hash >>> (64 - PRECISION));
+            // The sentinel bit bounds the rank when the remaining bits are all 0
+            byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+            if (rank > current[index]) {
+                current[index] = rank;
+            }
+        }
+
+        void rotate(long windows) {
+            byte[] recycled = previous;
+            if (windows == 1) {
+                previous = current;
+            } else {
+                Arrays.fill(current, (byte) 0);
+                previous = current;
+            }
+            Arrays.fill(recycled, (byte) 0);
+            current = recycled;
+        }
+
+        void clear() {
+            Arrays.fill(current, (byte) 0);
+            Arrays.fill(previous, (byte) 0);
+        }
+
+        double estimate() {
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < REGISTERS; i++) {
+                int register = Math.max(current[i], previous[i]);
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double estimate = alpha * REGISTERS * REGISTERS / sum;
+
+            // Linear counting for the small cardinalities
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+            }
+            return estimate;
+        }
+    }
+
+}
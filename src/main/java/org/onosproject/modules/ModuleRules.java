@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.fwdask.Flow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * @class ModuleRules
+ * @brief Module that gives its opinion following the rules written in a
+ * file, e.g.
+ *
+ *     destPort in {22, 23} and netProtocol == 6 -> deny 90
+ *
+ * (see RuleParser for the syntax). The opinion is the one of the first rule
+ * that matches the flow, the module has no opinion if no rule matches.
+ * The rules are read from the file named by the fwdask.rules system property
+ * (etc/fwdask-rules.txt by default) or, if it does not exist, from the
+ * rules.txt resource. They are compiled once into a RuleProgram and compiled
+ * again when the file changes, by a background thread that checks it; the
+ * flows are evaluated with the previous program meanwhile.
+ */
+public class ModuleRules implements Module {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String RULES_FILE_PROPERTY = "fwdask.rules";
+    private static final String DEFAULT_RULES_FILE = "etc/fwdask-rules.txt";
+    private static final String RULES_RESOURCE_PATH = "/modules/rules.txt";
+
+    // How often the file is checked for changes
+    private static final long RELOAD_INTERVAL_MS = 5000;
+
+    private final Path rulesFile;
+    private final ScheduledExecutorService reloadExecutor =
+            newSingleThreadScheduledExecutor(groupedThreads("onos/fwdask", "rules-reload-%d", log));
+    // Replaced as a whole by the reload thread
+    private volatile RuleProgram program = RuleProgram.EMPTY;
+    // Modification time of the compiled file, -1 for the resource
+    private long lastModified = Long.MIN_VALUE;
+
+    public ModuleRules() {
+        this.rulesFile = Paths.get(System.getProperty(RULES_FILE_PROPERTY, DEFAULT_RULES_FILE));
+        reload();
+        reloadExecutor.scheduleWithFixedDelay(this::reload, RELOAD_INTERVAL_MS, RELOAD_INTERVAL_MS,
+                                              TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+        return program.evaluate(pkt);
+    }
+
+    @Override
+    public void close() {
+        reloadExecutor.shutdownNow();
+    }
+
+    // The rules only look at the flow
+    @Override
+    public int cost() {
+        return 0;
+    }
+
+    // The highest confidence of the compiled rules, it changes when the
+    // rules are compiled again
+    @Override
+    public float maxConfidence() {
+        return program.maxConfidence();
+    }
+
+    /**
+     * @method reload
+     * @brief compile the rules again if the file changed
+     * @return none
+     */
+    private synchronized void reload() {
+        long modified = -1;
+        try {
+            if (Files.isRegularFile(rulesFile)) {
+                modified = Files.getLastModifiedTime(rulesFile).toMillis();
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+
+        if (modified == lastModified) {
+            return;
+        }
+        lastModified = modified;
+
+        InputStream in = null;
+        try {
+            in = modified >= 0 ? Files.newInputStream(rulesFile)
+                    : this.getClass().getResourceAsStream(RULES_RESOURCE_PATH);
+            if (in == null) {
+                log.error(RULES_RESOURCE_PATH + " file non trovato");
+                program = RuleProgram.EMPTY;
+                return;
+            }
+            program = compile(in);
+            log.info("Compiled {} rules into {} nodes from {}", program.rules(), program.nodes(),
+                     modified >= 0 ? rulesFile : RULES_RESOURCE_PATH);
+        } catch (IOException | RuntimeException e) {
+            // Caught too, or the periodic reload would stop
+            log.error(e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.error(e.getMessage());
+                }
+            }
+        }
+    }
+
+    // The invalid rules are skipped, the others are compiled anyway
+    private RuleProgram compile(InputStream in) throws IOException {
+        RuleParser parser = new RuleParser();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int number = 0;
+
+        while ((line = reader.readLine()) != null) {
+            number++;
+            try {
+                parser.parse(line);
+            } catch (IllegalArgumentException e) {
+                log.error("Rule at line {} skipped: {}", number, e.getMessage());
+            }
+        }
+
+        return parser.compile();
+    }
+
+}
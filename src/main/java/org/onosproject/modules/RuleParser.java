@@ -0,0 +1,380 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.onosproject.db.FlowField;
+
+/**
+ * @class RuleParser
+ * @brief Parser and compiler of the rules of ModuleRules. A rule is
+ *
+ *     expression -> allow|deny confidence
+ *
+ * where the expression combines with and, or, not and parentheses the tests
+ *
+ *     field == value    (also !=, <, <=, >, >=)
+ *     field in {value, value, ...}
+ *     any
+ *
+ * The fields are the ones of FlowField (vlan, ethType, srcMac, destMac,
+ * netProtocol, srcIp, destIp, srcPort, destPort; dst can be used for dest).
+ * The values are decimal or 0x hexadecimal numbers, IPv4 addresses with an
+ * optional /prefix length, or MAC addresses.
+ */
+final class RuleParser {
+
+    private static final String ARROW = "->";
+
+    private final List<Expression> expressions = new ArrayList<Expression>();
+    private final List<Module.Opinion> opinions = new ArrayList<Module.Opinion>();
+
+    /**
+     * @method parse
+     * @brief parse a line of the rules file, empty lines and the lines that
+     * start with # are ignored
+     * @param line is the line
+     * @throws IllegalArgumentException if the rule is not valid
+     */
+    void parse(String line) {
+        String rule = line.trim();
+        if (rule.isEmpty() || rule.startsWith("#")) {
+            return;
+        }
+
+        Tokenizer tokens = new Tokenizer(rule);
+        Expression expression = parseOr(tokens);
+        tokens.expect(ARROW);
+
+        String action = tokens.next();
+        boolean allow;
+        if ("allow".equals(action) || "accept".equals(action)) {
+            allow = true;
+        } else if ("deny".equals(action)) {
+            allow = false;
+        } else {
+            throw new IllegalArgumentException("expected allow or deny instead of " + action);
+        }
+
+        float confidence;
+        String value = tokens.next();
+        try {
+            confidence = Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid confidence " + value);
+        }
+        if (tokens.peek() != null) {
+            throw new IllegalArgumentException("unexpected " + tokens.peek());
+        }
+
+        opinions.add(new Module.Opinion(allow, confidence));
+        expressions.add(expression);
+    }
+
+    /**
+     * @method compile
+     * @brief compile the rules parsed so far, the first rule that matches wins
+     * @return RuleProgram
+     */
+    RuleProgram compile() {
+        RuleProgram.Builder builder = new RuleProgram.Builder();
+
+        // Compiled backward, so that every rule jumps to the following one
+        int next = RuleProgram.NO_MATCH;
+        for (int i = expressions.size() - 1; i >= 0; i--) {
+            next = expressions.get(i).compile(builder, RuleProgram.outcome(i), next);
+        }
+
+        return builder.build(next, opinions.toArray(new Module.Opinion[opinions.size()]));
+    }
+
+    private Expression parseOr(Tokenizer tokens) {
+        Expression expression = parseAnd(tokens);
+        while ("or".equals(tokens.peek())) {
+            tokens.next();
+            Expression left = expression;
+            Expression right = parseAnd(tokens);
+            expression = (builder, whenTrue, whenFalse) ->
+                    left.compile(builder, whenTrue, right.compile(builder, whenTrue, whenFalse));
+        }
+        return expression;
+    }
+
+    private Expression parseAnd(Tokenizer tokens) {
+        Expression expression = parseNot(tokens);
+        while ("and".equals(tokens.peek())) {
+            tokens.next();
+            Expression left = expression;
+            Expression right = parseNot(tokens);
+            expression = (builder, whenTrue, whenFalse) ->
+                    left.compile(builder, right.compile(builder, whenTrue, whenFalse), whenFalse);
+        }
+        return expression;
+    }
+
+    private Expression parseNot(Tokenizer tokens) {
+        if ("not".equals(tokens.peek())) {
+            tokens.next();
+            Expression negated = parseNot(tokens);
+            return (builder, whenTrue, whenFalse) -> negated.compile(builder, whenFalse, whenTrue);
+        }
+
+        if ("(".equals(tokens.peek())) {
+            tokens.next();
+            Expression expression = parseOr(tokens);
+            tokens.expect(")");
+            return expression;
+        }
+
+        if ("any".equals(tokens.peek())) {
+            tokens.next();
+            return (builder, whenTrue, whenFalse) -> whenTrue;
+        }
+
+        return parseTest(tokens);
+    }
+
+    private Expression parseTest(Tokenizer tokens) {
+        FlowField field = parseField(tokens.next());
+        String operator = tokens.next();
+
+        if ("in".equals(operator)) {
+            List<long[]> values = new ArrayList<long[]>();
+            tokens.expect("{");
+            values.add(parseValue(field, tokens.next()));
+            while (",".equals(tokens.peek())) {
+                tokens.next();
+                values.add(parseValue(field, tokens.next()));
+            }
+            tokens.expect("}");
+            return compileIn(field, values);
+        }
+
+        int op;
+        switch (operator == null ? "" : operator) {
+            case "==":
+                op = RuleProgram.EQ;
+                break;
+            case "!=":
+                op = RuleProgram.NE;
+                break;
+            case "<":
+                op = RuleProgram.LT;
+                break;
+            case "<=":
+                op = RuleProgram.LE;
+                break;
+            case ">":
+                op = RuleProgram.GT;
+                break;
+            case ">=":
+                op = RuleProgram.GE;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operator " + operator);
+        }
+
+        long[] value = parseValue(field, tokens.next());
+        if (value[1] != -1) {
+            // A network prefix can only be compared for equality
+            if (op == RuleProgram.EQ) {
+                return (builder, whenTrue, whenFalse) ->
+                        builder.addNode(field, RuleProgram.PREFIX, value[0], value[1], null, whenTrue, whenFalse);
+            }
+            if (op == RuleProgram.NE) {
+                return (builder, whenTrue, whenFalse) ->
+                        builder.addNode(field, RuleProgram.PREFIX, value[0], value[1], null, whenFalse, whenTrue);
+            }
+            throw new IllegalArgumentException("a network can only be compared with == or !=");
+        }
+
+        return (builder, whenTrue, whenFalse) ->
+                builder.addNode(field, op, value[0], -1, null, whenTrue, whenFalse);
+    }
+
+    // The plain values are tested with a single lookup, the networks one by one
+    private Expression compileIn(FlowField field, List<long[]> values) {
+        List<long[]> networks = new ArrayList<long[]>();
+        long[] set = new long[values.size()];
+        int size = 0;
+
+        for (long[] value : values) {
+            if (value[1] == -1) {
+                set[size++] = value[0];
+            } else {
+                networks.add(value);
+            }
+        }
+
+        long[] sorted = Arrays.copyOf(set, size);
+        Arrays.sort(sorted);
+
+        return (builder, whenTrue, whenFalse) -> {
+            int next = whenFalse;
+            for (int i = networks.size() - 1; i >= 0; i--) {
+                next = builder.addNode(field, RuleProgram.PREFIX, networks.get(i)[0], networks.get(i)[1],
+                                       null, whenTrue, next);
+            }
+            if (sorted.length == 1) {
+                next = builder.addNode(field, RuleProgram.EQ, sorted[0], -1, null, whenTrue, next);
+            } else if (sorted.length > 1) {
+                next = builder.addNode(field, RuleProgram.IN, 0, -1, sorted, whenTrue, next);
+            }
+            return next;
+        };
+    }
+
+    private static FlowField parseField(String name) {
+        if (name != null) {
+            String element = name.startsWith("dst") ? "dest" + name.substring(3) : name;
+            for (FlowField field : FlowField.values()) {
+                if (field.element().equals(element)) {
+                    return field;
+                }
+            }
+        }
+        throw new IllegalArgumentException("unknown field " + name);
+    }
+
+    /**
+     * @method parseValue
+     * @brief parse a value compared with a field
+     * @param field is the FlowField
+     * @param token is the value
+     * @return long[] with the value and the mask of the network, -1 if the
+     * value is not a network
+     */
+    private static long[] parseValue(FlowField field, String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("missing value");
+        }
+
+        switch (field) {
+            case SRC_IP:
+            case DEST_IP:
+                int slash = token.indexOf('/');
+                long address = FlowParsing.parseIpv4(slash < 0 ? token : token.substring(0, slash));
+                if (address < 0) {
+                    throw new IllegalArgumentException("invalid IPv4 address " + token);
+                }
+                if (slash < 0) {
+                    return new long[] {address, -1};
+                }
+                int length = (int) parseNumber(token.substring(slash + 1));
+                if (length < 0 || length > 32) {
+                    throw new IllegalArgumentException("invalid prefix length " + token);
+                }
+                long mask = (0xffffffffL << (32 - length)) & 0xffffffffL;
+                return new long[] {address & mask, mask};
+            case SRC_MAC:
+            case DEST_MAC:
+                long mac = FlowParsing.parseMac(token);
+                if (mac < 0) {
+                    throw new IllegalArgumentException("invalid MAC address " + token);
+                }
+                return new long[] {mac, -1};
+            default:
+                return new long[] {parseNumber(token), -1};
+        }
+    }
+
+    private static long parseNumber(String token) {
+        try {
+            if (token.startsWith("0x")) {
+                return Long.parseLong(token.substring(2), 16);
+            }
+            return Long.parseLong(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number " + token);
+        }
+    }
+
+    /**
+     * @interface Expression
+     * @brief Parsed boolean expression, compiled into the nodes that jump
+     * to whenTrue or whenFalse
+     */
+    private interface Expression {
+        // return the index of the first node to evaluate (or a jump target)
+        int compile(RuleProgram.Builder builder, int whenTrue, int whenFalse);
+    }
+
+    /**
+     * @class Tokenizer
+     * @brief Splits a rule in words, operators and punctuation
+     */
+    private static final class Tokenizer {
+        private final String rule;
+        private int position;
+        private String peeked;
+
+        Tokenizer(String rule) {
+            this.rule = rule;
+        }
+
+        String peek() {
+            if (peeked == null) {
+                peeked = read();
+            }
+            return peeked;
+        }
+
+        String next() {
+            String token = peek();
+            peeked = null;
+            return token;
+        }
+
+        void expect(String expected) {
+            String token = next();
+            if (!expected.equals(token)) {
+                throw new IllegalArgumentException("expected " + expected + " instead of " + token);
+            }
+        }
+
+        private String read() {
+            while (position < rule.length() && Character.isWhitespace(rule.charAt(position))) {
+                position++;
+            }
+            if (position == rule.length()) {
+                return null;
+            }
+
+            int begin = position;
+            char c = rule.charAt(position);
+            if (rule.startsWith(ARROW, position)) {
+                position += 2;
+            } else if ("(){},".indexOf(c) >= 0) {
+                position++;
+            } else if ("=!<>".indexOf(c) >= 0) {
+                position++;
+                if (position < rule.length() && rule.charAt(position) == '=') {
+                    position++;
+                }
+            } else {
+                while (position < rule.length() && !Character.isWhitespace(rule.charAt(position))
+                        && "(){},=!<>".indexOf(rule.charAt(position)) < 0
+                        && !rule.startsWith(ARROW, position)) {
+                    position++;
+                }
+            }
+            return rule.substring(begin, position);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.modules;
+
+import java.util.Arrays;
+
+import org.onosproject.db.FlowField;
+import org.onosproject.fwdask.Flow;
+
+/**
+ * @class RuleProgram
+ * @brief Rules compiled into a flat jump table. Every node tests one field
+ * of the flow and jumps to another node, or to the outcome of a rule, on
+ * success and on failure: the boolean operators and the order of the rules
+ * are resolved at compile time, so the evaluation is a single loop over
+ * the nodes that are actually reached.
+ */
+final class RuleProgram {
+
+    // Node operations
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int LE = 3;
+    static final int GT = 4;
+    static final int GE = 5;
+    static final int IN = 6;
+    static final int PREFIX = 7;
+
+    // Jump targets below 0: NO_MATCH, or the outcome of rule i as -(i + 2)
+    static final int NO_MATCH = -1;
+
+    static final RuleProgram EMPTY = new Builder().build(NO_MATCH, new Module.Opinion[0]);
+
+    private static final FlowField[] FIELDS = FlowField.values();
+
+    private final int start;
+    private final int[] fields;
+    private final int[] ops;
+    private final long[] operands;
+    private final long[] masks;
+    private final long[][] sets;
+    private final int[] onTrue;
+    private final int[] onFalse;
+    private final Module.Opinion[] opinions;
+    // Bitmask of the FlowField ordinals tested by the nodes
+    private final int usedFields;
+    // Highest confidence of the opinions of the rules
+    private final float maxConfidence;
+
+    private RuleProgram(Builder builder, int start, Module.Opinion[] opinions) {
+        int size = builder.size;
+        this.start = start;
+        this.fields = Arrays.copyOf(builder.fields, size);
+        this.ops = Arrays.copyOf(builder.ops, size);
+        this.operands = Arrays.copyOf(builder.operands, size);
+        this.masks = Arrays.copyOf(builder.masks, size);
+        this.sets = Arrays.copyOf(builder.sets, size);
+        this.onTrue = Arrays.copyOf(builder.onTrue, size);
+        this.onFalse = Arrays.copyOf(builder.onFalse, size);
+        this.opinions = opinions;
+
+        int used = 0;
+        for (int i = 0; i < size; i++) {
+            used |= 1 << fields[i];
+        }
+        this.usedFields = used;
+
+        float max = 0;
+        for (Module.Opinion opinion : opinions) {
+            max = Math.max(max, opinion.getConfidence());
+        }
+        this.maxConfidence = max;
+    }
+
+    static int outcome(int rule) {
+        return -(rule + 2);
+    }
+
+    int rules() {
+        return opinions.length;
+    }
+
+    int nodes() {
+        return fields.length;
+    }
+
+    float maxConfidence() {
+        return maxConfidence;
+    }
+
+    /**
+     * @method evaluate
+     * @brief run the program on a flow
+     * @param pkt is a Flow object
+     * @return Module.Opinion of the first rule that matches, null if none matches
+     */
+    Module.Opinion evaluate(Flow pkt) {
+        if (start == NO_MATCH) {
+            return null;
+        }
+
+        long[] values = new long[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            if ((usedFields & (1 << i)) != 0) {
+                values[i] = valueOf(FIELDS[i], pkt);
+            }
+        }
+
+        int pc = start;
+        while (pc >= 0) {
+            long value = values[fields[pc]];
+            boolean result;
+            switch (ops[pc]) {
+                case EQ:
+                    result = value == operands[pc];
+                    break;
+                case NE:
+                    result = value != operands[pc];
+                    break;
+                case LT:
+                    result = value < operands[pc];
+                    break;
+                case LE:
+                    result = value <= operands[pc];
+                    break;
+                case GT:
+                    result = value > operands[pc];
+                    break;
+                case GE:
+                    result = value >= operands[pc];
+                    break;
+                case IN:
+                    result = Arrays.binarySearch(sets[pc], value) >= 0;
+                    break;
+                case PREFIX:
+                    result = value >= 0 && (value & masks[pc]) == operands[pc];
+                    break;
+                default:
+                    result = false;
+            }
+            pc = result ? onTrue[pc] : onFalse[pc];
+        }
+
+        return pc == NO_MATCH ? null : opinions[-pc - 2];
+    }
+
+    /**
+     * @method valueOf
+     * @brief numeric value of a field of the flow, -1 for the addresses
+     * that can't be parsed (e.g. IPv6 addresses)
+     * @param field is a FlowField
+     * @param pkt is a Flow object
+     * @return long
+     */
+    private static long valueOf(FlowField field, Flow pkt) {
+        switch (field) {
+            case VLAN:
+                return pkt.getVlanID();
+            case ETH_TYPE:
+                return pkt.getEthType() & 0xffff;
+            case SRC_MAC:
+                return FlowParsing.parseMac(pkt.getSourceMac());
+            case DEST_MAC:
+                return FlowParsing.parseMac(pkt.getDestinationMac());
+            case NET_PROTOCOL:
+                return pkt.getNetProtocol();
+            case SRC_IP:
+                return FlowParsing.parseIpv4(pkt.getNetSource());
+            case DEST_IP:
+                return FlowParsing.parseIpv4(pkt.getNetDestination());
+            case SRC_PORT:
+                return pkt.getTransportSource();
+            case DEST_PORT:
+                return pkt.getTransportDestination();
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @class Builder
+     * @brief Collects the nodes of a RuleProgram
+     */
+    static final class Builder {
+        private int size;
+        private int[] fields = new int[16];
+        private int[] ops = new int[16];
+        private long[] operands = new long[16];
+        private long[] masks = new long[16];
+        private long[][] sets = new long[16][];
+        private int[] onTrue = new int[16];
+        private int[] onFalse = new int[16];
+
+        /**
+         * @method addNode
+         * @brief add a node that tests a field
+         * @return int, the index of the node
+         */
+        int addNode(FlowField field, int op, long operand, long mask, long[] set, int whenTrue, int whenFalse) {
+            if (size == fields.length) {
+                int capacity = size * 2;
+                fields = Arrays.copyOf(fields, capacity);
+                ops = Arrays.copyOf(ops, capacity);
+                operands = Arrays.copyOf(operands, capacity);
+                masks = Arrays.copyOf(masks, capacity);
+                sets = Arrays.copyOf(sets, capacity);
+                onTrue = Arrays.copyOf(onTrue, capacity);
+                onFalse = Arrays.copyOf(onFalse, capacity);
+            }
+
+            fields[size] = field.ordinal();
+            ops[size] = op;
+            operands[size] = operand;
+            masks[size] = mask;
+            sets[size] = set;
+            onTrue[size] = whenTrue;
+            onFalse[size] = whenFalse;
+            return size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        RuleProgram build(int start, Module.Opinion[] opinions) {
+            return new RuleProgram(this, start, opinions);
+        }
+    }
+}
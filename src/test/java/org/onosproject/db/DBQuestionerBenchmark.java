@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.db;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.onosproject.fwdask.Flow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @class DBQuestionerBenchmark
+ * @brief Compares, on an embedded BaseX server, counting the flows of a
+ * source by fetching and parsing them with counting them inside the
+ * database, which only sends back a number whatever the flows are.
+ * The cache is emptied before every call, so every call is a query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DBQuestionerBenchmark {
+
+    private static final String SOURCE = "10.0.0.1";
+
+    @Param({"100", "1000", "10000"})
+    private int flows;
+
+    private LocalBaseX basex;
+    private DBQuestioner db;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        basex = new LocalBaseX();
+        db = basex.connect();
+
+        long start = Timestamp.valueOf("2018-05-01 00:00:00").getTime();
+        for (int i = 0; i < flows; i++) {
+            Flow flow = new Flow();
+            flow.setNetSource(SOURCE);
+            flow.setNetDestination("10.0." + (i >> 8 & 0xff) + "." + (i & 0xff));
+            flow.setNetProtocol(6);
+            flow.setTransportDestination(1 + i % 1024);
+            flow.setTimestamp(new Timestamp(start + i * 1000L));
+            if (!db.insertFlow(flow)) {
+                throw new IOException("Can't insert the flows");
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyCache() {
+        db.clearCache();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        db.close();
+        basex.close();
+    }
+
+    @Benchmark
+    public int fetchAndCount() {
+        List<Flow> result = db.getFlowsBySrcIp(SOURCE);
+        return result == null ? 0 : result.size();
+    }
+
+    @Benchmark
+    public long countInDatabase() {
+        return db.countFlows(FlowField.SRC_IP, SOURCE, null, null);
+    }
+
+    @Benchmark
+    public long countDistinctInDatabase() {
+        return db.countDistinct(FlowField.SRC_IP, SOURCE, FlowField.DEST_PORT, null, null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DBQuestionerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
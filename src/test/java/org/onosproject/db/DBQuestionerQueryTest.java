@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onosproject.fwdask.Flow;
+
+/**
+ * @class DBQuestionerQueryTest
+ * @brief Runs the queries of the DBQuestioner on an embedded BaseX server:
+ * the flows and the counts must be the ones of the flows inserted, whatever
+ * the partitions they were stored in.
+ */
+public class DBQuestionerQueryTest {
+
+    private static final String SCANNER = "10.0.0.1";
+    private static final String CLIENT = "10.0.0.9";
+
+    private static LocalBaseX basex;
+    private DBQuestioner db;
+
+    @BeforeClass
+    public static void startBaseX() throws IOException {
+        basex = new LocalBaseX();
+    }
+
+    @AfterClass
+    public static void stopBaseX() throws IOException {
+        basex.close();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        db = basex.connect();
+
+        // Four flows of the scanner over two days, one of the client
+        insert(SCANNER, "10.0.1.1", 22, "2018-05-01 10:00:00");
+        insert(SCANNER, "10.0.1.2", 22, "2018-05-01 11:00:00");
+        insert(SCANNER, "10.0.1.3", 80, "2018-05-02 09:00:00");
+        insert(SCANNER, "10.0.1.3", 443, "2018-05-02 09:30:00");
+        insert(CLIENT, "10.0.1.3", 443, "2018-05-02 10:00:00");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        basex.execute("DROP DB fwdaskdb");
+    }
+
+    private void insert(String srcIp, String destIp, int destPort, String timestamp) {
+        Flow flow = new Flow();
+        flow.setNetSource(srcIp);
+        flow.setNetDestination(destIp);
+        flow.setNetProtocol(6);
+        flow.setTransportDestination(destPort);
+        flow.setTimestamp(Timestamp.valueOf(timestamp));
+        assertTrue(db.insertFlow(flow));
+    }
+
+    /**
+     * The flows of a source, in all the partitions and in a time window.
+     */
+    @Test
+    public void testGetFlows() {
+        assertEquals(4, db.getFlowsBySrcIp(SCANNER).size());
+
+        List<Flow> secondDay = db.getFlowsBySrcIp(SCANNER, Timestamp.valueOf("2018-05-02 00:00:00"), null);
+        assertEquals(2, secondDay.size());
+        assertEquals(Timestamp.valueOf("2018-05-02 09:00:00"), secondDay.get(0).getTimestamp());
+    }
+
+    /**
+     * The count is computed in the database, the time window can cut a
+     * partition in the middle.
+     */
+    @Test
+    public void testCountFlows() {
+        assertEquals(4, db.countFlows(FlowField.SRC_IP, SCANNER, null, null));
+        assertEquals(3, db.countFlows(FlowField.SRC_IP, SCANNER, Timestamp.valueOf("2018-05-01 10:30:00"),
+                                      Timestamp.valueOf("2018-05-02 23:59:59")));
+        assertEquals(2, db.countFlows(FlowField.DEST_IP, "10.0.1.3", null, null));
+        assertEquals(0, db.countFlows(FlowField.SRC_IP, "10.0.0.7", null, null));
+    }
+
+    /**
+     * The distinct destinations and ports contacted by a source.
+     */
+    @Test
+    public void testCountDistinct() {
+        assertEquals(3, db.countDistinct(FlowField.SRC_IP, SCANNER, FlowField.DEST_IP, null, null));
+        assertEquals(3, db.countDistinct(FlowField.SRC_IP, SCANNER, FlowField.DEST_PORT, null, null));
+        assertEquals(2, db.countDistinct(FlowField.SRC_IP, SCANNER, FlowField.DEST_PORT,
+                                         Timestamp.valueOf("2018-05-02 00:00:00"), null));
+    }
+
+    /**
+     * The flows of a source by destination port.
+     */
+    @Test
+    public void testCountGroupBy() {
+        Map<String, Long> byPort = db.countGroupBy(FlowField.SRC_IP, SCANNER, FlowField.DEST_PORT, null, null);
+
+        assertNotNull(byPort);
+        assertEquals(3, byPort.size());
+        assertEquals(Long.valueOf(2), byPort.get("22"));
+        assertEquals(Long.valueOf(1), byPort.get("80"));
+        assertEquals(Long.valueOf(1), byPort.get("443"));
+    }
+
+    /**
+     * The counts of many sources are computed with a single query, the
+     * sources without flows count 0.
+     */
+    @Test
+    public void testBatchCount() {
+        Map<String, Long> counts = db.countFlows(FlowField.SRC_IP, Arrays.asList(SCANNER, CLIENT, "10.0.0.7"),
+                                                 null, null);
+
+        assertNotNull(counts);
+        assertEquals(Long.valueOf(4), counts.get(SCANNER));
+        assertEquals(Long.valueOf(1), counts.get(CLIENT));
+        assertEquals(Long.valueOf(0), counts.get("10.0.0.7"));
+    }
+
+    /**
+     * The flows of the single document written before the partitioning are
+     * moved to the partitions of their days when the DBQuestioner connects,
+     * and the time windows then see them together with the new flows.
+     */
+    @Test
+    public void testLegacyFlowsMigrated() throws IOException, InterruptedException {
+        db.close();
+        basex.execute("XQUERY db:add('fwdaskdb', <flows>"
+                + legacyFlow(CLIENT, 22, "2018-04-30 23:00:00.0")
+                + legacyFlow(CLIENT, 22, "2018-05-01 12:00:00.0")
+                + legacyFlow(CLIENT, 25, "null")
+                + "</flows>, 'fwdaskdb.xml')");
+
+        db = basex.connect();
+        for (int i = 0; i < 100 && basex.execute("XQUERY db:exists('fwdaskdb', 'fwdaskdb.xml')").equals("true");
+                i++) {
+            Thread.sleep(50);
+        }
+        assertEquals("false", basex.execute("XQUERY db:exists('fwdaskdb', 'fwdaskdb.xml')"));
+
+        // The flow of 2018-05-01 joined the partition of the new flows of that day
+        assertEquals(2, db.countFlows(FlowField.SRC_IP, CLIENT, Timestamp.valueOf("2018-04-30 00:00:00"),
+                                      Timestamp.valueOf("2018-05-01 23:59:59")));
+        assertEquals(1, db.countFlows(FlowField.SRC_IP, CLIENT, Timestamp.valueOf("2018-05-02 00:00:00"),
+                                      Timestamp.valueOf("2018-05-02 23:59:59")));
+        // The flow without timestamp is kept, in the partition of today
+        assertEquals(4, db.countFlows(FlowField.SRC_IP, CLIENT, null, null));
+        assertEquals(1, db.countFlows(FlowField.SRC_IP, CLIENT,
+                                      Timestamp.valueOf(LocalDate.now().atStartOfDay()), null));
+    }
+
+    private static String legacyFlow(String srcIp, int destPort, String timestamp) {
+        return "<flow><vlan>0</vlan><ethType>2048</ethType><srcMac>00:00:00:00:00:01</srcMac>"
+                + "<destMac>00:00:00:00:00:02</destMac><netProtocol>6</netProtocol>"
+                + "<srcIp>" + srcIp + "</srcIp><destIp>10.0.1.9</destIp><srcPort>40000</srcPort>"
+                + "<destPort>" + destPort + "</destPort><timestamp>" + timestamp + "</timestamp></flow>";
+    }
+
+    /**
+     * A flow inserted after a query updates its cached result.
+     */
+    @Test
+    public void testInsertUpdatesCachedCount() {
+        assertEquals(1, db.countFlows(FlowField.SRC_IP, CLIENT, null, null));
+        insert(CLIENT, "10.0.1.4", 443, "2018-05-02 11:00:00");
+
+        assertEquals(2, db.countFlows(FlowField.SRC_IP, CLIENT, null, null));
+        db.clearCache();
+        assertEquals(2, db.countFlows(FlowField.SRC_IP, CLIENT, null, null));
+    }
+}
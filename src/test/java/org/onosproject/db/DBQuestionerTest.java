@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.fwdask.Flow;
+
+/**
+ * @class DBQuestionerTest
+ * @brief Unit tests of the queries built by the DBQuestioner and of the
+ * matching of the cached queries, without a XML Database.
+ */
+public class DBQuestionerTest {
+
+    private static final Timestamp DAY1 = Timestamp.valueOf("2018-05-01 10:00:00");
+    private static final Timestamp DAY2 = Timestamp.valueOf("2018-05-02 10:00:00");
+    private static final Timestamp DAY3 = Timestamp.valueOf("2018-05-03 10:00:00");
+    private static final Timestamp DAY4 = Timestamp.valueOf("2018-05-04 10:00:00");
+
+    private NavigableSet<String> partitions;
+
+    @Before
+    public void setUp() {
+        partitions = new TreeSet<String>();
+        partitions.add(DBQuestioner.partitionName(DAY1));
+        partitions.add(DBQuestioner.partitionName(DAY2));
+        partitions.add(DBQuestioner.partitionName(DAY3));
+    }
+
+    private static Flow flow(String srcIp, int destPort) {
+        Flow flow = new Flow();
+        flow.setNetSource(srcIp);
+        flow.setNetDestination("10.0.0.2");
+        flow.setTransportDestination(destPort);
+        return flow;
+    }
+
+    /**
+     * Checks the name of the partition of a day.
+     */
+    @Test
+    public void testPartitionName() {
+        assertEquals("flows-2018-05-01.xml", DBQuestioner.partitionName(DAY1));
+        assertEquals("flows-2018-05-01.xml", DBQuestioner.partitionName(Timestamp.valueOf("2018-05-01 23:59:59")));
+    }
+
+    /**
+     * Checks that a query without lower bound reads the whole database.
+     */
+    @Test
+    public void testFlowsPathWithoutWindow() {
+        assertEquals("db:open('fwdaskdb')//flows/flow", DBQuestioner.flowsPath(partitions, null, null));
+        assertEquals("db:open('fwdaskdb')//flows/flow", DBQuestioner.flowsPath(partitions, null, DAY1));
+    }
+
+    /**
+     * Checks that a query only reads the partitions of its time window.
+     */
+    @Test
+    public void testFlowsPathWithWindow() {
+        assertEquals("(db:open('fwdaskdb', 'flows-2018-05-02.xml'), db:open('fwdaskdb', 'flows-2018-05-03.xml'))"
+                + "/flows/flow", DBQuestioner.flowsPath(partitions, DAY2, null));
+        assertEquals("(db:open('fwdaskdb', 'flows-2018-05-01.xml'), db:open('fwdaskdb', 'flows-2018-05-02.xml'))"
+                + "/flows/flow", DBQuestioner.flowsPath(partitions, DAY1, DAY2));
+        assertEquals("(db:open('fwdaskdb', 'flows-2018-05-03.xml'))/flows/flow",
+                     DBQuestioner.flowsPath(partitions, DAY3, DAY3));
+    }
+
+    /**
+     * Checks that a time window without partitions selects nothing.
+     */
+    @Test
+    public void testFlowsPathEmptyWindow() {
+        assertNull(DBQuestioner.flowsPath(partitions, DAY4, null));
+        assertNull(DBQuestioner.flowsPath(new TreeSet<String>(), DAY1, DAY3));
+    }
+
+    /**
+     * Checks that the where clause filters on the element of the field and
+     * binds the values and the time window to the external variables.
+     */
+    @Test
+    public void testWhereClause() {
+        assertEquals("where $flow/srcIp = $value "
+                + "and ($since = '' or $flow/timestamp >= $since) "
+                + "and ($until = '' or $flow/timestamp <= $until)",
+                DBQuestioner.whereClause(FlowField.SRC_IP));
+        assertTrue(DBQuestioner.whereClause(FlowField.DEST_PORT, "tokenize($value, '\\n')")
+                .startsWith("where $flow/destPort = tokenize($value, '\\n') "));
+    }
+
+    /**
+     * Checks that a cached query matches the flows with its value in its
+     * time window, bounds included.
+     */
+    @Test
+    public void testQueryKeyMatches() {
+        DBQuestioner.QueryKey key = new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, DAY1, DAY3);
+
+        assertTrue(key.matches(flow("10.0.0.1", 80), DAY2));
+        assertTrue(key.matches(flow("10.0.0.1", 80), DAY1));
+        assertTrue(key.matches(flow("10.0.0.1", 80), DAY3));
+        assertFalse(key.matches(flow("10.0.0.3", 80), DAY2));
+        assertFalse(key.matches(flow("10.0.0.1", 80), DAY4));
+        assertFalse(key.matches(flow("10.0.0.1", 80), Timestamp.valueOf("2018-05-01 09:59:59")));
+    }
+
+    /**
+     * Checks that a cached query without time window matches all the flows
+     * with its value, and that the values are compared as stored.
+     */
+    @Test
+    public void testQueryKeyMatchesWithoutWindow() {
+        DBQuestioner.QueryKey key = new DBQuestioner.QueryKey(DBQuestioner.QueryType.GROUP,
+                FlowField.DEST_PORT, "443", FlowField.SRC_IP, null, null);
+
+        assertTrue(key.matches(flow("10.0.0.1", 443), DAY1));
+        assertTrue(key.matches(flow("10.0.0.3", 443), DAY4));
+        assertFalse(key.matches(flow("10.0.0.1", 80), DAY1));
+    }
+
+    /**
+     * Checks that the cache keys are equal when all their parameters are.
+     */
+    @Test
+    public void testQueryKeyEquality() {
+        DBQuestioner.QueryKey key = new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, DAY1, null);
+
+        assertEquals(key, new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, new Timestamp(DAY1.getTime()), null));
+        assertEquals(key.hashCode(), new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, DAY1, null).hashCode());
+        assertFalse(key.equals(new DBQuestioner.QueryKey(DBQuestioner.QueryType.DISTINCT,
+                FlowField.SRC_IP, "10.0.0.1", FlowField.DEST_IP, DAY1, null)));
+        assertFalse(key.equals(new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, DAY1, DAY2)));
+    }
+
+    /**
+     * Checks that two consecutive "last hour" queries in the same minute
+     * share their cache key, and that closed windows keep their bounds.
+     */
+    @Test
+    public void testQueryKeySlidingWindow() {
+        Timestamp first = Timestamp.valueOf("2018-05-02 09:12:10");
+        Timestamp second = Timestamp.valueOf("2018-05-02 09:12:40");
+        DBQuestioner.QueryKey key = new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, first, null);
+
+        assertEquals(key, new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, second, null));
+        assertEquals(Timestamp.valueOf("2018-05-02 09:12:00"),
+                DBQuestioner.QueryKey.windowStart(first, null));
+        assertFalse(key.equals(new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null,
+                Timestamp.valueOf("2018-05-02 09:13:10"), null)));
+        assertEquals(first, DBQuestioner.QueryKey.windowStart(first, DAY4));
+        assertFalse(new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, first, DAY4).equals(
+                new DBQuestioner.QueryKey(DBQuestioner.QueryType.COUNT,
+                FlowField.SRC_IP, "10.0.0.1", null, second, DAY4)));
+    }
+}
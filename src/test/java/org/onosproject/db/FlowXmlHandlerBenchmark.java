@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.db;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.onosproject.fwdask.Flow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * @class FlowXmlHandlerBenchmark
+ * @brief Decodes 100000 flow records as returned by the XML Database, with
+ * a parser and a handler reused across the calls as DBQuestioner does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlowXmlHandlerBenchmark {
+
+    private static final int FLOWS = 100000;
+
+    private String document;
+    private SAXParser parser;
+    private FlowXmlHandler handler;
+
+    @Setup
+    public void setUp() throws ParserConfigurationException, SAXException {
+        StringBuilder sb = new StringBuilder(FLOWS * 300);
+        sb.append("<flows>");
+        for (int i = 0; i < FLOWS; i++) {
+            sb.append("<flow><vlan>").append(i % 4096).append("</vlan><ethType>2048</ethType>")
+                    .append("<srcMac>00:00:00:00:00:01</srcMac><destMac>00:00:00:00:00:02</destMac>")
+                    .append("<netProtocol>6</netProtocol><srcIp>10.0.0.1</srcIp>")
+                    .append("<destIp>10.0.").append(i >> 8 & 0xff).append('.').append(i & 0xff).append("</destIp>")
+                    .append("<srcPort>").append(32768 + i % 32768).append("</srcPort>")
+                    .append("<destPort>").append(1 + i % 1024).append("</destPort>")
+                    .append("<timestamp>2018-05-01 10:00:00.0</timestamp></flow>");
+        }
+        sb.append("</flows>");
+        document = sb.toString();
+
+        parser = SAXParserFactory.newInstance().newSAXParser();
+        handler = new FlowXmlHandler();
+    }
+
+    @Benchmark
+    public List<Flow> parse() throws IOException, SAXException {
+        parser.parse(new InputSource(new StringReader(document)), handler);
+        return handler.getFlowsList();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FlowXmlHandlerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
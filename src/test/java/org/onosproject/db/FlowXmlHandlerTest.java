@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.sql.Timestamp;
+import java.util.List;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.fwdask.Flow;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * @class FlowXmlHandlerTest
+ * @brief Unit tests of the decoding of the flows returned by the XML Database.
+ */
+public class FlowXmlHandlerTest {
+
+    private static final String FLOW = "<flow><vlan>10</vlan><ethType>2048</ethType>"
+            + "<srcMac>00:00:00:00:00:01</srcMac><destMac>00:00:00:00:00:02</destMac>"
+            + "<netProtocol>6</netProtocol><srcIp>10.0.0.1</srcIp><destIp>10.0.0.2</destIp>"
+            + "<srcPort>40000</srcPort><destPort>443</destPort>"
+            + "<timestamp>2018-05-01 10:00:00.0</timestamp></flow>";
+
+    private SAXParser parser;
+    private FlowXmlHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = SAXParserFactory.newInstance().newSAXParser();
+        handler = new FlowXmlHandler();
+    }
+
+    private List<Flow> parse(String flows) throws Exception {
+        parser.parse(new InputSource(new StringReader("<flows>" + flows + "</flows>")), handler);
+        return handler.getFlowsList();
+    }
+
+    /**
+     * Checks that all the fields of a flow are decoded.
+     */
+    @Test
+    public void testParse() throws Exception {
+        List<Flow> flows = parse(FLOW);
+
+        assertEquals(1, flows.size());
+        Flow flow = flows.get(0);
+        assertEquals(10, flow.getVlanID());
+        assertEquals(2048, flow.getEthType());
+        assertEquals("00:00:00:00:00:01", flow.getSourceMac());
+        assertEquals("00:00:00:00:00:02", flow.getDestinationMac());
+        assertEquals(6, flow.getNetProtocol());
+        assertEquals("10.0.0.1", flow.getNetSource());
+        assertEquals("10.0.0.2", flow.getNetDestination());
+        assertEquals(40000, flow.getTransportSource());
+        assertEquals(443, flow.getTransportDestination());
+        assertEquals(Timestamp.valueOf("2018-05-01 10:00:00"), flow.getTimestamp());
+    }
+
+    /**
+     * Checks that a reused handler returns only the flows of the last parse.
+     */
+    @Test
+    public void testReuse() throws Exception {
+        assertEquals(3, parse(FLOW + FLOW + FLOW).size());
+        assertEquals(1, parse(FLOW).size());
+        assertTrue(parse("").isEmpty());
+    }
+
+    /**
+     * Checks that the text of an element delivered in more chunks is joined.
+     */
+    @Test
+    public void testChunkedText() throws Exception {
+        handler.startDocument();
+        handler.startElement("", "", "flow", null);
+        handler.startElement("", "", "srcIp", null);
+        handler.characters("10.0.".toCharArray(), 0, 5);
+        handler.characters("0.1".toCharArray(), 0, 3);
+        handler.endElement("", "", "srcIp");
+        handler.startElement("", "", "destPort", null);
+        handler.characters(" 4".toCharArray(), 0, 2);
+        handler.characters("43 ".toCharArray(), 0, 3);
+        handler.endElement("", "", "destPort");
+        handler.endElement("", "", "flow");
+        handler.endDocument();
+
+        Flow flow = handler.getFlowsList().get(0);
+        assertEquals("10.0.0.1", flow.getNetSource());
+        assertEquals(443, flow.getTransportDestination());
+    }
+
+    /**
+     * Checks that the numbers are parsed with their sign and that a flow
+     * stored without timestamp has none.
+     */
+    @Test
+    public void testNegativeNumberAndNullTimestamp() throws Exception {
+        Flow flow = parse("<flow><vlan>-1</vlan><timestamp>null</timestamp></flow>").get(0);
+
+        assertEquals(-1, flow.getVlanID());
+        assertNull(flow.getTimestamp());
+    }
+
+    /**
+     * Checks that an invalid number is rejected.
+     */
+    @Test(expected = SAXException.class)
+    public void testInvalidNumber() throws Exception {
+        parse("<flow><destPort>80a</destPort></flow>");
+    }
+}
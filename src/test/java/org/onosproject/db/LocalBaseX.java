@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.basex.BaseXServer;
+
+/**
+ * @class LocalBaseX
+ * @brief BaseX server embedded in the tests and the benchmarks. It listens
+ * on a free port of localhost, keeps its databases in a temporary directory
+ * and has the user of the application already created.
+ */
+final class LocalBaseX {
+
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+
+    private final Path home;
+    private final int port;
+    private final BaseXServer server;
+
+    LocalBaseX() throws IOException {
+        home = Files.createTempDirectory("fwdask-basex");
+        // BaseX reads its options from the org.basex.* system properties
+        System.setProperty("org.basex.path", home.toString());
+        System.setProperty("org.basex.DBPATH", home.resolve("data").toString());
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new BaseXServer("-p" + port, "-z");
+
+        execute("CREATE USER FWDASK fwdask");
+        execute("GRANT admin TO FWDASK");
+    }
+
+    /**
+     * @method execute
+     * @brief execute a command (e.g. DROP DB) as the administrator
+     * @param command is the BaseX command
+     * @return String, the result of the command
+     * @throws IOException
+     */
+    String execute(String command) throws IOException {
+        try (BaseXClient admin = new BaseXClient("localhost", port, "admin", "admin")) {
+            return admin.execute(command);
+        }
+    }
+
+    /**
+     * @method connect
+     * @brief create a DBQuestioner connected to the server
+     * @return DBQuestioner, already connected
+     * @throws IOException if it does not connect in time
+     */
+    DBQuestioner connect() throws IOException {
+        DBQuestioner db = new DBQuestioner("localhost", port);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+
+        while (!db.isConnected()) {
+            if (System.currentTimeMillis() > deadline) {
+                db.close();
+                throw new IOException("The DBQuestioner did not connect to the local BaseX");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                db.close();
+                throw new IOException(e);
+            }
+        }
+        return db;
+    }
+
+    void close() throws IOException {
+        server.stop();
+        delete(home.toFile());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.TpPort;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+
+/**
+ * @class AdaptiveTimeoutsTest
+ * @brief Unit tests of the learnt timeouts of the flow classes.
+ */
+public class AdaptiveTimeoutsTest {
+
+    private static final int BASE = 40;
+    private static final int MIN = 5;
+    private static final int MAX = 300;
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+
+    private AdaptiveTimeouts timeouts;
+
+    @Before
+    public void setUp() {
+        timeouts = new AdaptiveTimeouts(BASE);
+        timeouts.configure(true, BASE, MIN, MAX);
+    }
+
+    private static TrafficSelector selector(int port) {
+        return DefaultTrafficSelector.builder()
+                .matchEthType(Ethernet.TYPE_IPV4)
+                .matchIPProtocol(IPv4.PROTOCOL_TCP)
+                .matchTcpDst(TpPort.tpPort(port))
+                .build();
+    }
+
+    private static FlowEntry expired(TrafficSelector selector, int timeout, long life, long packets) {
+        FlowRule rule = DefaultFlowRule.builder()
+                .forDevice(DEVICE)
+                .withSelector(selector)
+                .withTreatment(DefaultTrafficTreatment.builder().build())
+                .withPriority(10)
+                .fromApp(new DefaultApplicationId(1, "org.onosproject.fwdask"))
+                .makeTemporary(timeout)
+                .build();
+        return new DefaultFlowEntry(rule, FlowEntry.FlowEntryState.REMOVED, life, TimeUnit.SECONDS, packets, 0);
+    }
+
+    /**
+     * Checks that only the rules that matched at most one packet shrink the
+     * timeout of their class.
+     */
+    @Test
+    public void testShortFlowsShrink() {
+        TrafficSelector selector = selector(80);
+        int timeout = timeouts.installed(DEVICE, selector);
+        assertEquals(BASE, timeout);
+
+        timeouts.removed(expired(selector, timeout, timeout, 100));
+        assertEquals(BASE, timeouts.statistics().get(0).timeout());
+
+        timeouts.removed(expired(selector, timeout, timeout, 1));
+        assertEquals(BASE - BASE / 8, timeouts.statistics().get(0).timeout());
+    }
+
+    /**
+     * Checks that a flow coming back after its rule expired doubles the
+     * timeout of its class, up to the maximum.
+     */
+    @Test
+    public void testRepacketInGrows() {
+        TrafficSelector selector = selector(443);
+        int timeout = timeouts.installed(DEVICE, selector);
+        timeouts.removed(expired(selector, timeout, timeout, 10));
+        assertEquals(2 * BASE, timeouts.installed(DEVICE, selector));
+        assertEquals(1, timeouts.repacketIns());
+    }
+
+    /**
+     * Checks that the base timeout is applied even when the bounds are not
+     * valid.
+     */
+    @Test
+    public void testBaseTimeoutWithInvalidBounds() {
+        timeouts.configure(false, BASE, MIN, MAX);
+        try {
+            timeouts.configure(false, 60, MAX, MIN);
+            fail("invalid bounds accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(60, timeouts.installed(DEVICE, selector(22)));
+        }
+    }
+}
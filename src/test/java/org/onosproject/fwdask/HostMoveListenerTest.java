@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.provider.ProviderId;
+
+/**
+ * @class HostMoveListenerTest
+ * @brief Unit tests of the HostLocationCache kept by the HostMoveListener
+ * and of the removal of the rules of the hosts that move.
+ */
+public class HostMoveListenerTest {
+
+    private static final short APP_ID = 1;
+    private static final ProviderId PID = new ProviderId("of", "foo");
+
+    private static final DeviceId DEVICE1 = DeviceId.deviceId("of:0000000000000001");
+    private static final DeviceId DEVICE2 = DeviceId.deviceId("of:0000000000000002");
+
+    private static final MacAddress MAC1 = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final MacAddress MAC2 = MacAddress.valueOf("00:00:00:00:00:02");
+    private static final MacAddress MAC3 = MacAddress.valueOf("00:00:00:00:00:03");
+
+    private HostLocationCache locations;
+    private InstalledRuleIndex rules;
+    private List<FlowRule> removed;
+    private HostMoveListener listener;
+
+    @Before
+    public void setUp() {
+        locations = new HostLocationCache();
+        rules = new InstalledRuleIndex(APP_ID);
+        removed = new ArrayList<FlowRule>();
+        listener = new HostMoveListener(locations, rules, r -> removed.addAll(Arrays.asList(r)));
+    }
+
+    private static Host host(MacAddress mac, DeviceId deviceId, long port) {
+        return new DefaultHost(PID, HostId.hostId(mac), mac, VlanId.NONE,
+                               new HostLocation(deviceId, PortNumber.portNumber(port), 0),
+                               Collections.<IpAddress>emptySet());
+    }
+
+    private static FlowRule rule(DeviceId deviceId, MacAddress src, MacAddress dst, long port) {
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(DefaultTrafficSelector.builder().matchEthSrc(src).matchEthDst(dst).build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(port)).build())
+                .withPriority(10)
+                .fromApp(new DefaultApplicationId(APP_ID, "org.onosproject.fwdask"))
+                .makeTemporary(10)
+                .build();
+    }
+
+    /**
+     * Checks that the locations follow the added, moved and removed hosts.
+     */
+    @Test
+    public void testLocations() {
+        Host host = host(MAC1, DEVICE1, 1);
+        listener.event(new HostEvent(HostEvent.Type.HOST_ADDED, host));
+
+        assertEquals(host.location(), locations.location(host.id()));
+        assertNull(locations.location(HostId.hostId(MAC2)));
+        assertEquals(1, locations.hits());
+        assertEquals(1, locations.misses());
+        assertEquals(1, locations.size());
+
+        Host moved = host(MAC1, DEVICE2, 3);
+        listener.event(new HostEvent(HostEvent.Type.HOST_MOVED, moved, host));
+        assertEquals(moved.location(), locations.location(host.id()));
+        assertEquals(1, locations.moves());
+
+        listener.event(new HostEvent(HostEvent.Type.HOST_REMOVED, moved));
+        assertNull(locations.location(host.id()));
+        assertEquals(0, locations.size());
+        assertEquals(2, locations.hits());
+        assertEquals(2, locations.misses());
+    }
+
+    /**
+     * Checks that a host that moves loses its rules, and only its rules.
+     */
+    @Test
+    public void testMoveRemovesRules() {
+        FlowRule toHost = rule(DEVICE1, MAC2, MAC1, 1);
+        FlowRule fromHost = rule(DEVICE2, MAC1, MAC2, 2);
+        FlowRule other = rule(DEVICE1, MAC2, MAC3, 2);
+        rules.load(Arrays.asList(toHost, fromHost, other));
+
+        Host host = host(MAC1, DEVICE1, 1);
+        listener.event(new HostEvent(HostEvent.Type.HOST_ADDED, host));
+        assertTrue(removed.isEmpty());
+
+        listener.event(new HostEvent(HostEvent.Type.HOST_MOVED, host(MAC1, DEVICE2, 3), host));
+        assertEquals(2, removed.size());
+        assertTrue(removed.contains(toHost));
+        assertTrue(removed.contains(fromHost));
+        assertEquals(1, locations.moves());
+    }
+
+    /**
+     * Checks that the events that don't change the location of a host
+     * keep its rules.
+     */
+    @Test
+    public void testNoMoveKeepsRules() {
+        rules.load(Collections.singletonList(rule(DEVICE1, MAC2, MAC1, 1)));
+
+        Host host = host(MAC1, DEVICE1, 1);
+        listener.event(new HostEvent(HostEvent.Type.HOST_ADDED, host));
+        listener.event(new HostEvent(HostEvent.Type.HOST_UPDATED, host));
+        listener.event(new HostEvent(HostEvent.Type.HOST_MOVED, host, host));
+        listener.event(new HostEvent(HostEvent.Type.HOST_REMOVED, host));
+
+        assertTrue(removed.isEmpty());
+        assertEquals(0, locations.moves());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @class InstalledRuleIndexBenchmark
+ * @brief Looks up the rules of a MAC pair on a device among 50000 rules
+ * spread over synthetic devices, through the index and by scanning the
+ * rules of the device as the flow table would be.
+ * Every pair has a rule on each of a few devices, as along a path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InstalledRuleIndexBenchmark {
+
+    private static final int RULES = 50000;
+    private static final int PATH_LENGTH = 5;
+
+    @Param({"10", "100", "1000"})
+    private int devices;
+
+    private InstalledRuleIndex index;
+    private List<List<FlowRule>> tables;
+    private MacAddress src;
+    private MacAddress dst;
+    private DeviceId deviceId;
+    private int table;
+
+    @Setup
+    public void setUp() {
+        index = new InstalledRuleIndex((short) 1);
+        tables = new ArrayList<List<FlowRule>>(devices);
+        for (int d = 0; d < devices; d++) {
+            tables.add(new ArrayList<FlowRule>());
+        }
+
+        // Each pair is installed on PATH_LENGTH consecutive devices
+        int pairs = RULES / PATH_LENGTH;
+        for (int p = 0; p < pairs; p++) {
+            MacAddress s = MacAddress.valueOf(0x020000000000L + p);
+            MacAddress t = MacAddress.valueOf(0x040000000000L + p);
+            for (int h = 0; h < PATH_LENGTH; h++) {
+                int d = (p + h) % devices;
+                FlowRule rule = rule(device(d), s, t, 1 + h);
+                index.add(rule);
+                tables.get(d).add(rule);
+            }
+        }
+
+        int p = pairs / 2;
+        src = MacAddress.valueOf(0x020000000000L + p);
+        dst = MacAddress.valueOf(0x040000000000L + p);
+        table = (p + PATH_LENGTH / 2) % devices;
+        deviceId = device(table);
+    }
+
+    private static DeviceId device(int d) {
+        return DeviceId.deviceId(String.format("of:%016x", d + 1));
+    }
+
+    private static FlowRule rule(DeviceId deviceId, MacAddress src, MacAddress dst, long port) {
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(DefaultTrafficSelector.builder().matchEthSrc(src).matchEthDst(dst).build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(port)).build())
+                .withPriority(10)
+                .fromApp(new DefaultApplicationId(1, "org.onosproject.fwdask"))
+                .makeTemporary(10)
+                .build();
+    }
+
+    @Benchmark
+    public List<FlowRule> indexed() {
+        return index.forPair(src, dst, deviceId);
+    }
+
+    @Benchmark
+    public List<FlowRule> scanDevice() {
+        List<FlowRule> result = new ArrayList<FlowRule>();
+        for (FlowRule r : tables.get(table)) {
+            MacAddress s = null, t = null;
+            for (Criterion cr : r.selector().criteria()) {
+                if (cr.type() == Criterion.Type.ETH_DST) {
+                    t = ((EthCriterion) cr).mac();
+                } else if (cr.type() == Criterion.Type.ETH_SRC) {
+                    s = ((EthCriterion) cr).mac();
+                }
+            }
+            if (src.equals(s) && dst.equals(t)) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(InstalledRuleIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+
+/**
+ * @class InstalledRuleIndexTest
+ * @brief Unit tests of the index of the installed rules and of its updates
+ * from the flow rule events.
+ */
+public class InstalledRuleIndexTest {
+
+    private static final short APP_ID = 1;
+    private static final short OTHER_APP_ID = 2;
+
+    private static final DeviceId DEVICE1 = DeviceId.deviceId("of:0000000000000001");
+    private static final DeviceId DEVICE2 = DeviceId.deviceId("of:0000000000000002");
+
+    private static final MacAddress MAC1 = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final MacAddress MAC2 = MacAddress.valueOf("00:00:00:00:00:02");
+    private static final MacAddress MAC3 = MacAddress.valueOf("00:00:00:00:00:03");
+
+    private InstalledRuleIndex index;
+
+    @Before
+    public void setUp() {
+        index = new InstalledRuleIndex(APP_ID);
+    }
+
+    private static FlowRule rule(short appId, DeviceId deviceId, MacAddress src, MacAddress dst, long port) {
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(DefaultTrafficSelector.builder().matchEthSrc(src).matchEthDst(dst).build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(port)).build())
+                .withPriority(10)
+                .fromApp(new DefaultApplicationId(appId, "org.onosproject.fwdask"))
+                .makeTemporary(10)
+                .build();
+    }
+
+    private static ConnectPoint egress(DeviceId deviceId, long port) {
+        return new ConnectPoint(deviceId, PortNumber.portNumber(port));
+    }
+
+    /**
+     * Checks the lookups by egress connect point, by pair and by MAC address.
+     */
+    @Test
+    public void testLookups() {
+        FlowRule r1 = rule(APP_ID, DEVICE1, MAC1, MAC2, 1);
+        FlowRule r2 = rule(APP_ID, DEVICE1, MAC2, MAC1, 2);
+        FlowRule r3 = rule(APP_ID, DEVICE2, MAC1, MAC2, 1);
+        FlowRule r4 = rule(APP_ID, DEVICE1, MAC3, MAC2, 1);
+        index.load(Arrays.asList(r1, r2, r3, r4));
+
+        assertEquals(4, index.size());
+        assertEquals(2, index.fromEgress(egress(DEVICE1, 1)).size());
+        assertTrue(index.fromEgress(egress(DEVICE1, 1)).containsAll(Arrays.asList(r1, r4)));
+        assertEquals(Arrays.asList(r3), index.fromEgress(egress(DEVICE2, 1)));
+        assertTrue(index.fromEgress(egress(DEVICE2, 2)).isEmpty());
+
+        assertEquals(Arrays.asList(r1), index.forPair(MAC1, MAC2, DEVICE1));
+        assertEquals(Arrays.asList(r3), index.forPair(MAC1, MAC2, DEVICE2));
+        assertTrue(index.forPair(MAC3, MAC1, DEVICE1).isEmpty());
+
+        assertEquals(3, index.forMac(MAC1).size());
+        assertEquals(Arrays.asList(r4), index.forMac(MAC3));
+    }
+
+    /**
+     * Checks that the index follows the rule events of the application only.
+     */
+    @Test
+    public void testEvents() {
+        FlowRule r1 = rule(APP_ID, DEVICE1, MAC1, MAC2, 1);
+        FlowRule other = rule(OTHER_APP_ID, DEVICE1, MAC1, MAC3, 1);
+
+        index.update(new FlowRuleEvent(FlowRuleEvent.Type.RULE_ADD_REQUESTED, r1));
+        index.update(new FlowRuleEvent(FlowRuleEvent.Type.RULE_ADDED, r1));
+        index.update(new FlowRuleEvent(FlowRuleEvent.Type.RULE_ADDED, other));
+        assertEquals(1, index.size());
+        assertEquals(Arrays.asList(r1), index.forMac(MAC1));
+        assertEquals(Arrays.asList(r1), index.fromEgress(egress(DEVICE1, 1)));
+
+        index.update(new FlowRuleEvent(FlowRuleEvent.Type.RULE_REMOVED, r1));
+        assertEquals(0, index.size());
+        assertTrue(index.forMac(MAC1).isEmpty());
+        assertTrue(index.forMac(MAC2).isEmpty());
+        assertTrue(index.fromEgress(egress(DEVICE1, 1)).isEmpty());
+        assertTrue(index.forPair(MAC1, MAC2, DEVICE1).isEmpty());
+    }
+
+    /**
+     * Checks that a rule updated with another output is moved to its new
+     * egress connect point.
+     */
+    @Test
+    public void testUpdateMovesEgress() {
+        FlowRule r1 = rule(APP_ID, DEVICE1, MAC1, MAC2, 1);
+        FlowRule moved = DefaultFlowRule.builder()
+                .withCookie(r1.id().value())
+                .forDevice(DEVICE1)
+                .withSelector(r1.selector())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(3)).build())
+                .withPriority(10)
+                .makeTemporary(10)
+                .build();
+
+        index.add(r1);
+        index.add(moved);
+        assertEquals(1, index.size());
+        assertTrue(index.fromEgress(egress(DEVICE1, 1)).isEmpty());
+        assertEquals(Arrays.asList(moved), index.fromEgress(egress(DEVICE1, 3)));
+    }
+
+    /**
+     * Checks that a rule from a host to itself is indexed once by MAC.
+     */
+    @Test
+    public void testSameSourceAndDestination() {
+        FlowRule loop = rule(APP_ID, DEVICE1, MAC1, MAC1, 1);
+
+        index.add(loop);
+        assertEquals(Arrays.asList(loop), index.forMac(MAC1));
+        index.remove(loop);
+        assertTrue(index.forMac(MAC1).isEmpty());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.modules.Module;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @class OpinionBatcherBenchmark
+ * @brief Asks a module its opinion on 1000 pending flows, one task per flow
+ * and through the OpinionBatcher. The module pays a fixed cost per call,
+ * as a query to the XML Database, and a small cost per flow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OpinionBatcherBenchmark {
+
+    private static final int PENDING_FLOWS = 1000;
+    private static final long TOKENS_PER_FLOW = 100;
+
+    @Param({"0", "1000", "10000"})
+    private long callTokens;
+
+    private ExecutorService executor;
+    private ModuleHandle handle;
+    private List<FlowContext> contexts;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        handle = new ModuleHandle(new QueryModule(callTokens), executor);
+
+        contexts = new ArrayList<FlowContext>(PENDING_FLOWS);
+        for (int i = 0; i < PENDING_FLOWS; i++) {
+            Flow flow = new Flow();
+            flow.setNetSource("10.0." + (i >> 8 & 0xff) + "." + (i & 0xff));
+            flow.setTransportDestination(1 + i % 1024);
+            contexts.add(new FlowContext(flow, null));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int perFlow() {
+        List<CompletableFuture<Module.Opinion>> futures = new ArrayList<CompletableFuture<Module.Opinion>>();
+        for (FlowContext context : contexts) {
+            futures.add(CompletableFuture.supplyAsync(() -> handle.evaluate(context), executor));
+        }
+        return join(futures);
+    }
+
+    @Benchmark
+    public int batched() {
+        List<CompletableFuture<Module.Opinion>> futures = new ArrayList<CompletableFuture<Module.Opinion>>();
+        for (FlowContext context : contexts) {
+            futures.add(handle.batcher().submit(context));
+        }
+        return join(futures);
+    }
+
+    private static int join(List<CompletableFuture<Module.Opinion>> futures) {
+        int wanted = 0;
+        for (CompletableFuture<Module.Opinion> future : futures) {
+            if (future.join().wantsFlow()) {
+                wanted++;
+            }
+        }
+        return wanted;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OpinionBatcherBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    /**
+     * @class QueryModule
+     * @brief Module that pays callTokens of work for every call and
+     * TOKENS_PER_FLOW for every flow, and denies the flows to port 22
+     */
+    private static final class QueryModule implements Module {
+        private final long callTokens;
+
+        QueryModule(long callTokens) {
+            this.callTokens = callTokens;
+        }
+
+        @Override
+        public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+            Blackhole.consumeCPU(callTokens);
+            return opinion(pkt);
+        }
+
+        @Override
+        public List<Opinion> givesOpinions(List<FlowContext> contexts) {
+            Blackhole.consumeCPU(callTokens);
+            List<Opinion> opinions = new ArrayList<Opinion>(contexts.size());
+            for (FlowContext context : contexts) {
+                opinions.add(opinion(context.getFlow()));
+            }
+            return opinions;
+        }
+
+        private static Opinion opinion(Flow pkt) {
+            Blackhole.consumeCPU(TOKENS_PER_FLOW);
+            return new Opinion(pkt.getTransportDestination() != 22, 60);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.modules.Module;
+
+/**
+ * @class OpinionBatcherTest
+ * @brief Unit tests of the batch opinion API: the default loop of
+ * Module.givesOpinions and the batches built by the OpinionBatcher.
+ */
+public class OpinionBatcherTest {
+
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+    private final Executor executor = tasks::add;
+
+    private BatchModule module;
+    private ModuleHandle handle;
+
+    @Before
+    public void setUp() {
+        module = new BatchModule();
+        handle = new ModuleHandle(module, executor);
+    }
+
+    private static FlowContext context(int destPort) {
+        Flow flow = new Flow();
+        flow.setTransportDestination(destPort);
+        return new FlowContext(flow, null);
+    }
+
+    // Runs the tasks queued on the executor, as the module thread would
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    /**
+     * Checks that the default batch method asks the module one flow at a
+     * time, and that such a module gets no batcher.
+     */
+    @Test
+    public void testDefaultLoop() {
+        Module single = (pkt, db) -> pkt.getTransportDestination() == 22 ? null : new Module.Opinion(true, 50);
+
+        List<Module.Opinion> opinions = single.givesOpinions(Arrays.asList(context(80), context(22)));
+        assertEquals(2, opinions.size());
+        assertTrue(opinions.get(0).wantsFlow());
+        assertNull(opinions.get(1));
+        assertNull(new ModuleHandle(single, executor).batcher());
+    }
+
+    /**
+     * Checks that the flows waiting for a busy module are asked together,
+     * each one getting its own opinion.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        assertNotNull(handle.batcher());
+
+        CompletableFuture<Module.Opinion> first = handle.batcher().submit(context(80));
+        CompletableFuture<Module.Opinion> second = handle.batcher().submit(context(22));
+        CompletableFuture<Module.Opinion> third = handle.batcher().submit(context(443));
+        assertEquals(1, tasks.size());
+
+        runTasks();
+        assertEquals(Arrays.asList(3), module.batchSizes);
+        assertTrue(first.get().wantsFlow());
+        assertFalse(second.get().wantsFlow());
+        assertTrue(third.get().wantsFlow());
+        assertEquals(3, handle.statistics().calls());
+    }
+
+    /**
+     * Checks that the flows that gave up waiting are left out of the batch.
+     */
+    @Test
+    public void testCancelledFlowsSkipped() {
+        CompletableFuture<Module.Opinion> first = handle.batcher().submit(context(80));
+        handle.batcher().submit(context(22));
+        first.cancel(true);
+
+        runTasks();
+        assertEquals(Arrays.asList(1), module.batchSizes);
+    }
+
+    /**
+     * Checks that a module that answers with the wrong number of opinions
+     * fails all the flows of the batch.
+     */
+    @Test
+    public void testWrongBatchSize() {
+        module.drop = true;
+        CompletableFuture<Module.Opinion> first = handle.batcher().submit(context(80));
+        CompletableFuture<Module.Opinion> second = handle.batcher().submit(context(22));
+
+        runTasks();
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(2, handle.statistics().errors());
+    }
+
+    /**
+     * @class BatchModule
+     * @brief Module that denies the flows to port 22 and records the size of
+     * the batches it is asked
+     */
+    private static final class BatchModule implements Module {
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        boolean drop = false;
+
+        @Override
+        public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+            return new Opinion(pkt.getTransportDestination() != 22, 60);
+        }
+
+        @Override
+        public List<Opinion> givesOpinions(List<FlowContext> contexts) {
+            batchSizes.add(contexts.size());
+            List<Opinion> opinions = new ArrayList<Opinion>();
+            for (FlowContext context : contexts) {
+                opinions.add(givesOpinion(context.getFlow(), null));
+            }
+            if (drop) {
+                opinions.remove(0);
+            }
+            return opinions;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Open Networking Foundation
+ * Copyright 2018 Davide Berardi, Andrea Melis.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwdask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.db.DBQuestioner;
+import org.onosproject.modules.Module;
+
+/**
+ * @class PolicyMakerTest
+ * @brief Unit tests of the evaluation of the modules: the deadline shared
+ * by the tiers of a flow, the interruption of the late modules and the
+ * modules skipped once the outcome can't change.
+ */
+public class PolicyMakerTest {
+
+    private static final int DEADLINE_MS = 100;
+
+    private PolicyMaker policyMaker;
+    private final List<ModuleHandle> handles = new ArrayList<ModuleHandle>();
+
+    @Before
+    public void setUp() {
+        policyMaker = new PolicyMaker(null);
+        policyMaker.setModuleDeadline(DEADLINE_MS);
+    }
+
+    @After
+    public void tearDown() {
+        policyMaker.close();
+    }
+
+    private StubModule add(StubModule module) {
+        handles.add(new ModuleHandle(module, Runnable::run));
+        handles.sort((a, b) -> Integer.compare(a.cost(), b.cost()));
+        return module;
+    }
+
+    private Module.Opinion evaluate() {
+        return policyMaker.evaluateModules(handles, new FlowContext(new Flow(), null));
+    }
+
+    /**
+     * Checks that a module missing the deadline is dropped and interrupted,
+     * and that the evaluation does not wait for it.
+     */
+    @Test
+    public void testLateModuleInterrupted() throws InterruptedException {
+        StubModule fast = add(new StubModule(0, new Module.Opinion(true, 60)));
+        StubModule slow = add(new StubModule(0, new Module.Opinion(false, 100)).sleeping(10000));
+
+        long start = System.nanoTime();
+        Module.Opinion opinion = evaluate();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertNotNull(opinion);
+        assertTrue(opinion.wantsFlow());
+        assertEquals(60, opinion.getConfidence(), 0.001);
+        assertTrue("waited " + elapsedMs + " ms", elapsedMs < 5 * DEADLINE_MS);
+        assertEquals(1, fast.calls.get());
+        assertEquals(1, policyMaker.getLateModules());
+        assertTrue(slow.interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Checks that the tiers left when the deadline expires are not
+     * interrogated and count as late.
+     */
+    @Test
+    public void testDeadlineCoversAllTiers() {
+        add(new StubModule(0, new Module.Opinion(true, 50)).sleeping(10000));
+        StubModule expensive = add(new StubModule(1, new Module.Opinion(true, 50)));
+
+        evaluate();
+
+        assertEquals(0, expensive.calls.get());
+        assertEquals(2, policyMaker.getLateModules());
+    }
+
+    /**
+     * Checks that the expensive modules are not interrogated when their
+     * highest confidence can't overturn the opinions already given.
+     */
+    @Test
+    public void testShortCircuit() {
+        add(new StubModule(0, new Module.Opinion(true, 90)));
+        StubModule expensive = add(new StubModule(1, new Module.Opinion(false, 30)).withMaxConfidence(30));
+
+        Module.Opinion opinion = evaluate();
+
+        assertTrue(opinion.wantsFlow());
+        assertEquals(0, expensive.calls.get());
+        assertEquals(1, policyMaker.getSkippedModules());
+    }
+
+    /**
+     * Checks that the expensive modules are still interrogated when their
+     * opinion could change the outcome.
+     */
+    @Test
+    public void testNoShortCircuitWhenUndecided() {
+        add(new StubModule(0, new Module.Opinion(true, 90)));
+        StubModule expensive = add(new StubModule(1, new Module.Opinion(false, 95)));
+
+        Module.Opinion opinion = evaluate();
+
+        assertFalse(opinion.wantsFlow());
+        assertEquals(1, expensive.calls.get());
+        assertEquals(0, policyMaker.getSkippedModules());
+    }
+
+    /**
+     * Checks that a module is closed when it is replaced or removed.
+     */
+    @Test
+    public void testModulesClosed() {
+        StubModule first = new StubModule(0, null);
+        StubModule second = new StubModule(0, null);
+
+        policyMaker.addModule(first);
+        policyMaker.addModule(second);
+        assertEquals(1, first.closes.get());
+        assertEquals(0, second.closes.get());
+
+        policyMaker.removeModule(second);
+        assertEquals(1, second.closes.get());
+    }
+
+    /**
+     * @class StubModule
+     * @brief Module with a fixed cost and opinion, that can take its time
+     * to answer and records the calls and the interruptions
+     */
+    static final class StubModule implements Module {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger closes = new AtomicInteger();
+        private final int cost;
+        private final Opinion opinion;
+        private float maxConfidence = 100;
+        private long delayMs = 0;
+
+        StubModule(int cost, Opinion opinion) {
+            this.cost = cost;
+            this.opinion = opinion;
+        }
+
+        StubModule sleeping(long delay) {
+            this.delayMs = delay;
+            return this;
+        }
+
+        StubModule withMaxConfidence(float confidence) {
+            this.maxConfidence = confidence;
+            return this;
+        }
+
+        @Override
+        public Opinion givesOpinion(Flow pkt, DBQuestioner dbQuestioner) {
+            calls.incrementAndGet();
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    return null;
+                }
+            }
+            return opinion;
+        }
+
+        @Override
+        public int cost() {
+            return cost;
+        }
+
+        @Override
+        public float maxConfidence() {
+            return maxConfidence;
+        }
+
+        @Override
+        public void close() {
+            closes.incrementAndGet();
+        }
+    }
+}